@@ -0,0 +1,296 @@
+package org.neo4j.meta.model;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache with a maximum number of entries. When it's full the entry with
+ * the lowest score among a sample of entries is evicted, where the score
+ * is the number of hits of the entry, halved for every {@code maxSize}
+ * accesses of the cache since the entry was last used. This way entries
+ * which are used often are kept, unless they haven't been used for a
+ * while. Entries which are no longer current (see {@link #isCurrent(long)})
+ * are evicted before any other.
+ *
+ * Reads don't take any lock, and to keep hits from contending on shared
+ * memory the counters are striped and the access of an entry is only
+ * recorded for a sample of the hits (the scores are relative, so sampling
+ * every entry the same way keeps them comparable).
+ *
+ * Keeps statistics of hits, misses and evictions, see
+ * {@link #statistics()}. {@code null} is allowed as a key.
+ *
+ * @param <K> the type of keys.
+ * @param <V> the type of cached values.
+ */
+class BoundedCache<K, V>
+{
+	/**
+	 * The default max number of entries of each cache of a meta model.
+	 */
+	static final int DEFAULT_MAX_SIZE = 10000;
+
+	private static final int SAMPLE_SIZE = 8;
+	// Every n:th hit (per thread) is recorded, must be a power of two.
+	private static final int TOUCH_SAMPLE = 8;
+	private static final int MAX_FREQUENCY = 1 << 16;
+	private static final Object NULL_KEY = new Object();
+
+	private final String name;
+	private final int maxSize;
+	private final ConcurrentMap<Object, Entry<V>> entries =
+		new ConcurrentHashMap<Object, Entry<V>>();
+	// Advanced by puts and, TOUCH_SAMPLE at a time, by sampled hits.
+	private final AtomicLong clock = new AtomicLong();
+	private final StripedCounter hits = new StripedCounter();
+	private final StripedCounter misses = new StripedCounter();
+	private final StripedCounter evictions = new StripedCounter();
+	private Iterator<Map.Entry<Object, Entry<V>>> sampler;
+
+	/**
+	 * @param name the name of the cache, used in its statistics.
+	 * @param maxSize the max number of entries.
+	 */
+	BoundedCache( String name, int maxSize )
+	{
+		if ( maxSize < 1 )
+		{
+			throw new IllegalArgumentException( "Invalid max size " + maxSize );
+		}
+		this.name = name;
+		this.maxSize = maxSize;
+	}
+
+	private static Object mask( Object key )
+	{
+		return key != null ? key : NULL_KEY;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private K unmask( Object key )
+	{
+		return key != NULL_KEY ? ( K ) key : null;
+	}
+
+	/**
+	 * @return the value cached for {@code key}, or {@code null}.
+	 */
+	V get( K key )
+	{
+		Entry<V> entry = this.entries.get( mask( key ) );
+		if ( entry != null && !isCurrent( entry.stamp ) )
+		{
+			this.entries.remove( mask( key ), entry );
+			entry = null;
+		}
+		if ( entry == null )
+		{
+			this.misses.increment();
+			return null;
+		}
+		if ( ( this.hits.increment() & ( TOUCH_SAMPLE - 1 ) ) == 0 )
+		{
+			entry.touch( this.clock.addAndGet( TOUCH_SAMPLE ), this.maxSize );
+		}
+		return entry.value;
+	}
+
+	/**
+	 * @param stamp the stamp of an entry, as given to
+	 * {@link #put(Object, Object, long)}.
+	 * @return whether or not entries with that stamp are still valid.
+	 */
+	protected boolean isCurrent( long stamp )
+	{
+		return true;
+	}
+
+	void put( K key, V value )
+	{
+		put( key, value, 0 );
+	}
+
+	/**
+	 * Caches {@code value} for {@code key}, evicting other entries if the
+	 * cache is full.
+	 * @param stamp f.ex. a version which is checked by
+	 * {@link #isCurrent(long)} on reads.
+	 */
+	void put( K key, V value, long stamp )
+	{
+		if ( value == null )
+		{
+			return;
+		}
+		Entry<V> entry = new Entry<V>( value, stamp );
+		entry.touch( this.clock.incrementAndGet(), this.maxSize );
+		this.entries.put( mask( key ), entry );
+		if ( this.entries.size() > this.maxSize )
+		{
+			evict();
+		}
+	}
+
+	private synchronized void evict()
+	{
+		long now = this.clock.get();
+		while ( this.entries.size() > this.maxSize )
+		{
+			Map.Entry<Object, Entry<V>> victim = null;
+			int victimScore = Integer.MAX_VALUE;
+			boolean staleRemoved = false;
+			for ( int i = 0; i < SAMPLE_SIZE; i++ )
+			{
+				if ( this.sampler == null || !this.sampler.hasNext() )
+				{
+					// Continues where the last eviction stopped, so that
+					// all entries get sampled.
+					this.sampler = this.entries.entrySet().iterator();
+					if ( !this.sampler.hasNext() )
+					{
+						break;
+					}
+				}
+				Map.Entry<Object, Entry<V>> candidate = this.sampler.next();
+				if ( !isCurrent( candidate.getValue().stamp ) )
+				{
+					// There are usually many of them, f.ex. all the entries
+					// of an earlier epoch, and they're never returned.
+					removeStale();
+					staleRemoved = true;
+					break;
+				}
+				int score = candidate.getValue().score( now, this.maxSize );
+				if ( victim == null || score < victimScore )
+				{
+					victim = candidate;
+					victimScore = score;
+				}
+			}
+			if ( staleRemoved )
+			{
+				continue;
+			}
+			if ( victim == null )
+			{
+				return;
+			}
+			if ( this.entries.remove( victim.getKey(), victim.getValue() ) )
+			{
+				this.evictions.increment();
+				evicted( unmask( victim.getKey() ), victim.getValue().value );
+			}
+		}
+	}
+
+	/**
+	 * Called when an entry has been evicted to make room for others, or
+	 * because it's no longer current, f.ex. for cleaning up information
+	 * kept about the entry elsewhere. Called while holding the lock of
+	 * this cache. Entries removed by {@link #remove(Object)},
+	 * {@link #removeIf(Filter)} or {@link #clear()} aren't reported.
+	 * @param key the key of the entry.
+	 * @param value the value of the entry.
+	 */
+	protected void evicted( K key, V value )
+	{
+	}
+
+	private void removeStale()
+	{
+		for ( Iterator<Map.Entry<Object, Entry<V>>> iterator =
+			this.entries.entrySet().iterator(); iterator.hasNext(); )
+		{
+			Map.Entry<Object, Entry<V>> entry = iterator.next();
+			if ( !isCurrent( entry.getValue().stamp ) &&
+				this.entries.remove( entry.getKey(), entry.getValue() ) )
+			{
+				evicted( unmask( entry.getKey() ), entry.getValue().value );
+			}
+		}
+		this.sampler = null;
+	}
+
+	V remove( K key )
+	{
+		Entry<V> entry = this.entries.remove( mask( key ) );
+		return entry != null ? entry.value : null;
+	}
+
+	/**
+	 * Removes the entries with values which {@code filter} matches.
+	 */
+	void removeIf( Filter<? super V> filter )
+	{
+		for ( Iterator<Entry<V>> iterator =
+			this.entries.values().iterator(); iterator.hasNext(); )
+		{
+			if ( filter.matches( iterator.next().value ) )
+			{
+				iterator.remove();
+			}
+		}
+	}
+
+	int size()
+	{
+		return this.entries.size();
+	}
+
+	void clear()
+	{
+		this.entries.clear();
+	}
+
+	/**
+	 * @return a snapshot of the statistics of this cache.
+	 */
+	CacheStatistics statistics()
+	{
+		return new CacheStatistics( this.name, this.entries.size(),
+			this.maxSize, this.hits.get(), this.misses.get(),
+			this.evictions.get() );
+	}
+
+	/**
+	 * Selects values to remove, see {@link BoundedCache#removeIf(Filter)}.
+	 */
+	interface Filter<V>
+	{
+		boolean matches( V value );
+	}
+
+	private static class Entry<V>
+	{
+		private final V value;
+		private final long stamp;
+		private volatile int frequency;
+		private volatile long lastAccess;
+
+		Entry( V value, long stamp )
+		{
+			this.value = value;
+			this.stamp = stamp;
+		}
+
+		/**
+		 * Records an access. Concurrent accesses may be lost, which is fine
+		 * since the score is just a heuristic.
+		 */
+		void touch( long now, int halfLife )
+		{
+			this.frequency = Math.min( score( now, halfLife ) + 1,
+				MAX_FREQUENCY );
+			this.lastAccess = now;
+		}
+
+		int score( long now, int halfLife )
+		{
+			long halvings = ( now - this.lastAccess ) / halfLife;
+			return halvings >= 31 ? 0 : this.frequency >> halvings;
+		}
+	}
+}
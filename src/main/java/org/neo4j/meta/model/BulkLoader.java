@@ -0,0 +1,393 @@
+package org.neo4j.meta.model;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Creates the contents of a {@link SchemaDefinition} in a namespace. Names
+ * are resolved in memory (through the {@link NameIndex}, or one scan per
+ * kind for stores which haven't been backfilled), the hierarchy is checked
+ * for cycles before anything is written, and the nodes,
+ * relationships and index entries are written directly in chunked
+ * transactions, instead of going through the wrapper objects one call and
+ * one transaction at a time.
+ */
+class BulkLoader
+{
+	private final MetaModelNamespace namespace;
+	private final MetaModelImpl model;
+	private final int batchSize;
+	private final Map<RelationshipType, Map<String, Node>> names =
+		new HashMap<RelationshipType, Map<String, Node>>();
+	private final Set<Long> touched = new HashSet<Long>();
+	// The restrictions of the containers restricted so far, including the
+	// ones created by this load.
+	private final Map<Long, Map<Long, Node>> restrictions =
+		new HashMap<Long, Map<Long, Node>>();
+	private Transaction tx;
+	// Whether or not the namespace is locked in the current transaction.
+	private boolean locked;
+	private int inTx;
+	private int written;
+
+	BulkLoader( MetaModelNamespace namespace, int batchSize )
+	{
+		if ( batchSize < 1 )
+		{
+			throw new IllegalArgumentException( "Invalid batch size " +
+				batchSize );
+		}
+		this.namespace = namespace;
+		this.model = ( MetaModelImpl ) namespace.model();
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param definition the definitions to create.
+	 * @return the number of names, hierarchy relationships and restrictions
+	 * which were written.
+	 */
+	int load( SchemaDefinition definition )
+	{
+		this.tx = model.graphDb().beginTx();
+		model.schemaChanged();
+		try
+		{
+			boolean indexComplete = model.nameIndex().isComplete();
+			findAll( MetaModelRelTypes.META_CLASS, definition.classes(),
+				indexComplete );
+			findAll( MetaModelRelTypes.META_PROPERTY,
+				definition.properties(), indexComplete );
+			findAll( MetaModelRelTypes.META_RELATIONSHIP,
+				definition.relationshipTypes(), indexComplete );
+
+			// Before anything is written, since the transactions of a load
+			// which fails halfway through have been committed. Each
+			// relationship is checked again, against the edits of other
+			// transactions, when it's created, see
+			// MetaModelImpl#checkHierarchyAdd.
+			checkCycles( MetaModelRelTypes.META_CLASS,
+				definition.superClasses(),
+				MetaModelRelTypes.META_IS_SUBCLASS_OF );
+			checkCycles( MetaModelRelTypes.META_PROPERTY,
+				definition.superProperties(),
+				MetaModelRelTypes.META_IS_SUBPROPERTY_OF );
+			checkCycles( MetaModelRelTypes.META_RELATIONSHIP,
+				definition.superRelationshipTypes(),
+				MetaModelRelTypes.META_IS_SUBRELATIONSHIP_OF );
+
+			createAll( MetaModelRelTypes.META_CLASS, definition.classes() );
+			createAll( MetaModelRelTypes.META_PROPERTY,
+				definition.properties() );
+			createAll( MetaModelRelTypes.META_RELATIONSHIP,
+				definition.relationshipTypes() );
+
+			connectAll( MetaModelRelTypes.META_CLASS, definition.superClasses(),
+				MetaModelRelTypes.META_IS_SUBCLASS_OF );
+			connectAll( MetaModelRelTypes.META_PROPERTY,
+				definition.superProperties(),
+				MetaModelRelTypes.META_IS_SUBPROPERTY_OF );
+			connectAll( MetaModelRelTypes.META_RELATIONSHIP,
+				definition.superRelationshipTypes(),
+				MetaModelRelTypes.META_IS_SUBRELATIONSHIP_OF );
+
+			for ( SchemaDefinition.Restriction restriction :
+				definition.propertyRestrictions() )
+			{
+				restrict( restriction, MetaModelRelTypes.META_PROPERTY,
+					MetaModelRelTypes.META_PROPERTY_RESTRICTION_TO_PROPERTYCONTAINER,
+					MetaModelRelTypes.META_RESTRICTION_TO_PROPERTY );
+			}
+			for ( SchemaDefinition.Restriction restriction :
+				definition.relationshipRestrictions() )
+			{
+				restrict( restriction, MetaModelRelTypes.META_RELATIONSHIP,
+					MetaModelRelTypes.META_RELATIONSHIP_RESTRICTION_TO_CLASS,
+					MetaModelRelTypes.META_RESTRICTION_TO_RELATIONSHIP );
+			}
+			this.tx.success();
+		}
+		finally
+		{
+			this.tx.finish();
+		}
+		model.members().changed( this.touched );
+		return this.written;
+	}
+
+	/**
+	 * Finds the existing objects of the given names, without writing
+	 * anything.
+	 */
+	private void findAll( RelationshipType kind, Collection<String> toResolve,
+		boolean indexComplete )
+	{
+		Map<String, Node> resolved = new HashMap<String, Node>();
+		this.names.put( kind, resolved );
+		if ( !indexComplete )
+		{
+			// One scan instead of one per name.
+			for ( Relationship rel : namespace.node().getRelationships( kind,
+				Direction.OUTGOING ) )
+			{
+				Node node = rel.getEndNode();
+				String name = ( String ) node.getProperty(
+					MetaModelObject.KEY_NAME, null );
+				if ( name != null && toResolve.contains( name ) )
+				{
+					resolved.put( name, node );
+				}
+			}
+		}
+		else
+		{
+			for ( String name : toResolve )
+			{
+				Node node = model.nameIndex().get( namespace.node(), kind,
+					name );
+				if ( node != null )
+				{
+					resolved.put( name, node );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the objects of the given names which weren't found by
+	 * {@link #findAll(RelationshipType, Collection, boolean)}.
+	 */
+	private void createAll( RelationshipType kind, Collection<String> toResolve )
+	{
+		Map<String, Node> resolved = this.names.get( kind );
+		for ( String name : toResolve )
+		{
+			if ( resolved.containsKey( name ) )
+			{
+				continue;
+			}
+			// Objects created since they were looked up are indexed, even
+			// in stores which haven't been backfilled.
+			Node node = model.nameIndex().get( namespace.node(), kind, name );
+			if ( node == null && !this.locked )
+			{
+				// Serialized with other loads and with
+				// MetaModelImpl#findOrCreateInCollection, which take the
+				// same lock.
+				MetaModelImpl.lock( namespace.node() );
+				this.locked = true;
+				node = model.nameIndex().get( namespace.node(), kind, name );
+			}
+			if ( node == null )
+			{
+				node = model.graphDb().createNode();
+				node.setProperty( MetaModelObject.KEY_NAME, name );
+				model.nameIndex().index( node, namespace.node(), kind, name );
+				namespace.node().createRelationshipTo( node, kind );
+				this.touched.add( node.getId() );
+				resolved.put( name, node );
+				written();
+			}
+			else
+			{
+				resolved.put( name, node );
+			}
+		}
+	}
+
+	/**
+	 * Checks that the hierarchy relationships of the definition don't form
+	 * a cycle, by themselves or together with the existing ones.
+	 * @throws HierarchyCycleException if they do.
+	 */
+	private void checkCycles( RelationshipType kind, List<String[]> pairs,
+		RelationshipType hierarchyType )
+	{
+		if ( pairs.isEmpty() )
+		{
+			return;
+		}
+		Map<String, Set<String>> supers = new HashMap<String, Set<String>>();
+		for ( String[] pair : pairs )
+		{
+			supersOf( supers, pair[ 0 ] ).add( pair[ 1 ] );
+		}
+
+		// The existing paths between the names, f.ex. through existing
+		// things which aren't in the definition.
+		Map<String, Node> existing = this.names.get( kind );
+		Map<Long, String> existingNames = new HashMap<Long, String>();
+		for ( Map.Entry<String, Node> entry : existing.entrySet() )
+		{
+			existingNames.put( entry.getValue().getId(), entry.getKey() );
+		}
+		for ( Map.Entry<String, Node> entry : existing.entrySet() )
+		{
+			for ( Long superId : model.supers( hierarchyType,
+				entry.getValue() ) )
+			{
+				String superName = existingNames.get( superId );
+				if ( superName != null && !superName.equals( entry.getKey() ) )
+				{
+					supersOf( supers, entry.getKey() ).add( superName );
+				}
+			}
+		}
+
+		Map<String, Boolean> visited = new HashMap<String, Boolean>();
+		for ( String name : supers.keySet() )
+		{
+			checkCycles( name, supers, visited, hierarchyType );
+		}
+	}
+
+	private static Set<String> supersOf( Map<String, Set<String>> supers,
+		String name )
+	{
+		Set<String> result = supers.get( name );
+		if ( result == null )
+		{
+			result = new HashSet<String>();
+			supers.put( name, result );
+		}
+		return result;
+	}
+
+	/**
+	 * A depth first search where {@code visited} maps the names being
+	 * visited to {@code false} and the ones which are done to {@code true}.
+	 */
+	private static void checkCycles( String name,
+		Map<String, Set<String>> supers, Map<String, Boolean> visited,
+		RelationshipType hierarchyType )
+	{
+		Boolean done = visited.get( name );
+		if ( done != null )
+		{
+			if ( !done )
+			{
+				throw new HierarchyCycleException( "The " +
+					hierarchyType.name() + " relationships of the definition " +
+					"would make " + name + " a super of itself" );
+			}
+			return;
+		}
+		visited.put( name, false );
+		Set<String> direct = supers.get( name );
+		if ( direct != null )
+		{
+			for ( String superName : direct )
+			{
+				checkCycles( superName, supers, visited, hierarchyType );
+			}
+		}
+		visited.put( name, true );
+	}
+
+	private void connectAll( RelationshipType kind, List<String[]> pairs,
+		RelationshipType hierarchyType )
+	{
+		Map<String, Node> resolved = this.names.get( kind );
+		for ( String[] pair : pairs )
+		{
+			Node sub = resolved.get( pair[ 0 ] );
+			Node superNode = resolved.get( pair[ 1 ] );
+			if ( isConnected( sub, superNode, hierarchyType ) )
+			{
+				continue;
+			}
+			model.checkHierarchyAdd( hierarchyType, sub, superNode );
+			sub.createRelationshipTo( superNode, hierarchyType );
+			this.touched.add( sub.getId() );
+			this.touched.add( superNode.getId() );
+			model.hierarchyEdited( hierarchyType.name(), sub.getId(),
+				superNode.getId(), true );
+			written();
+		}
+	}
+
+	private static boolean isConnected( Node sub, Node superNode,
+		RelationshipType hierarchyType )
+	{
+		for ( Relationship rel : sub.getRelationships( hierarchyType,
+			Direction.OUTGOING ) )
+		{
+			if ( rel.getEndNode().equals( superNode ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void restrict( SchemaDefinition.Restriction definition,
+		RelationshipType targetKind, RelationshipType toContainer,
+		RelationshipType toTarget )
+	{
+		Node container = this.names.get( MetaModelRelTypes.META_CLASS ).get(
+			definition.className );
+		Node target = this.names.get( targetKind ).get( definition.targetName );
+		Map<Long, Node> existing = this.restrictions.get( container.getId() );
+		if ( existing == null )
+		{
+			existing = RestrictionIndex.build( container );
+			this.restrictions.put( container.getId(), existing );
+		}
+		Node restriction = existing.get( target.getId() );
+		if ( restriction == null )
+		{
+			restriction = model.graphDb().createNode();
+			restriction.createRelationshipTo( container, toContainer );
+			restriction.createRelationshipTo( target, toTarget );
+			this.touched.add( container.getId() );
+			this.touched.add( target.getId() );
+			existing.put( target.getId(), restriction );
+			model.restrictionIndex().created( container, target, restriction );
+		}
+		setOrRemove( restriction, MetaModelObject.KEY_MIN_CARDINALITY,
+			definition.minCardinality );
+		setOrRemove( restriction, MetaModelObject.KEY_MAX_CARDINALITY,
+			definition.maxCardinality );
+		written();
+	}
+
+	private static void setOrRemove( Node node, String key, Object value )
+	{
+		if ( value == null )
+		{
+			node.removeProperty( key );
+		}
+		else
+		{
+			node.setProperty( key, value );
+		}
+	}
+
+	/**
+	 * Counts a written object and commits the transaction every
+	 * {@link #batchSize} objects.
+	 */
+	private void written()
+	{
+		this.written++;
+		if ( ++this.inTx >= this.batchSize )
+		{
+			this.tx.success();
+			this.tx.finish();
+			this.tx = model.graphDb().beginTx();
+			model.schemaChanged();
+			this.locked = false;
+			this.inTx = 0;
+		}
+	}
+}
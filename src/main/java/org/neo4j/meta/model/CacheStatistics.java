@@ -0,0 +1,105 @@
+package org.neo4j.meta.model;
+
+/**
+ * A snapshot of the statistics of one of the caches of a
+ * {@link MetaModelImpl}, see {@link MetaModelImpl#getCacheStatistics()}.
+ */
+public class CacheStatistics
+{
+	private final String name;
+	private final int size;
+	private final int maxSize;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+
+	CacheStatistics( String name, int size, int maxSize, long hits,
+		long misses, long evictions )
+	{
+		this.name = name;
+		this.size = size;
+		this.maxSize = maxSize;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+	}
+
+	/**
+	 * @return the name of the cache.
+	 */
+	public String getName()
+	{
+		return this.name;
+	}
+
+	/**
+	 * @return the number of entries in the cache.
+	 */
+	public int getSize()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return the max number of entries in the cache.
+	 */
+	public int getMaxSize()
+	{
+		return this.maxSize;
+	}
+
+	/**
+	 * @return the number of lookups which found a value.
+	 */
+	public long getHits()
+	{
+		return this.hits;
+	}
+
+	/**
+	 * @return the number of lookups which didn't find a value.
+	 */
+	public long getMisses()
+	{
+		return this.misses;
+	}
+
+	/**
+	 * @return the number of entries which were evicted because the cache
+	 * was full.
+	 */
+	public long getEvictions()
+	{
+		return this.evictions;
+	}
+
+	/**
+	 * @return the ratio of lookups which found a value, or {@code 0} if
+	 * there have been no lookups.
+	 */
+	public double getHitRatio()
+	{
+		long lookups = this.hits + this.misses;
+		return lookups == 0 ? 0 : ( double ) this.hits / lookups;
+	}
+
+	/**
+	 * @param other statistics of another cache.
+	 * @return the statistics of this and {@code other} combined, named
+	 * as this one.
+	 */
+	CacheStatistics plus( CacheStatistics other )
+	{
+		return new CacheStatistics( this.name, this.size + other.size,
+			this.maxSize + other.maxSize, this.hits + other.hits,
+			this.misses + other.misses, this.evictions + other.evictions );
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "[" + this.name + ", size:" +
+			this.size + "/" + this.maxSize + ", hits:" + this.hits +
+			", misses:" + this.misses + ", evictions:" + this.evictions + "]";
+	}
+}
@@ -0,0 +1,249 @@
+package org.neo4j.meta.model;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Removes a class, property or relationship type together with everything
+ * connected to it, in transactions of a bounded number of deletions.
+ *
+ * The first transaction unlinks the object from its namespace and the name
+ * indexes and marks it with {@link #KEY_REMOVING}, so that it's invisible
+ * from then on. The restrictions on or of it and then all its remaining
+ * relationships (f.ex. {@link MetaModelRelTypes#META_HAS_INSTANCE}) are
+ * deleted in batches, and last the node itself. A marked node is indexed
+ * so that an interrupted removal can be found and completed, see
+ * {@link MetaModelImpl#resumeRemovals(int, RemovalListener)}.
+ */
+class CascadeRemover
+{
+	/**
+	 * Set on (and indexed for) the nodes which are being removed.
+	 */
+	static final String KEY_REMOVING = "meta_model_removing";
+
+	/**
+	 * The relationship types from a restriction to what it restricts, or
+	 * is a restriction of.
+	 */
+	private static final RelationshipType[] RESTRICTION_TYPES = {
+		MetaModelRelTypes.META_PROPERTY_RESTRICTION_TO_PROPERTYCONTAINER,
+		MetaModelRelTypes.META_RELATIONSHIP_RESTRICTION_TO_CLASS,
+		MetaModelRelTypes.META_RESTRICTION_TO_PROPERTY,
+		MetaModelRelTypes.META_RESTRICTION_TO_RELATIONSHIP };
+
+	private final MetaModelImpl model;
+	private final int batchSize;
+	private final RemovalListener listenerOrNull;
+	private final Set<Long> deletedNodes = new HashSet<Long>();
+	private Transaction tx;
+	private int inTx;
+	private String name;
+	private long relationships;
+	private long restrictions;
+
+	CascadeRemover( MetaModelImpl model, int batchSize,
+		RemovalListener listenerOrNull )
+	{
+		if ( batchSize < 1 )
+		{
+			throw new IllegalArgumentException( "Invalid batch size " +
+				batchSize );
+		}
+		this.model = model;
+		this.batchSize = batchSize;
+		this.listenerOrNull = listenerOrNull;
+	}
+
+	/**
+	 * Unlinks {@code node} from its namespace and the name indexes and
+	 * marks it as being removed, in one transaction.
+	 * @param container the node of the namespace of the object.
+	 * @param kind the relationship type from {@code container} to
+	 * {@code node}.
+	 * @param node the node of the object to remove.
+	 * @throws IllegalArgumentException if {@code kind} is {@code null}, i.e.
+	 * {@code node} isn't a class, property or relationship type of
+	 * {@code container}, since then it may be anything.
+	 */
+	void start( Node container, RelationshipType kind, Node node )
+	{
+		if ( kind == null )
+		{
+			throw new IllegalArgumentException( node +
+				" isn't a member of the namespace " + container );
+		}
+		Transaction startTx = model.graphDb().beginTx();
+		try
+		{
+			String nameOrNull = ( String ) node.getProperty(
+				MetaModelObject.KEY_NAME, null );
+			model.nameIndex().remove( node, container, kind, nameOrNull );
+			for ( Relationship rel : node.getRelationships( kind,
+				Direction.INCOMING ) )
+			{
+				rel.delete();
+			}
+			node.setProperty( KEY_REMOVING, true );
+			model.indexService().index( node, KEY_REMOVING, true );
+			model.schemaChanged();
+			startTx.success();
+		}
+		finally
+		{
+			startTx.finish();
+		}
+		model.deleted( Collections.singleton( node.getId() ) );
+	}
+
+	/**
+	 * Deletes the restrictions and relationships of {@code node}, which has
+	 * been marked by {@link #start(Node, RelationshipType, Node)}, and then
+	 * {@code node} itself.
+	 * @return the number of relationships which were deleted, not counting
+	 * the ones of deleted restrictions.
+	 */
+	long remove( Node node )
+	{
+		this.tx = model.graphDb().beginTx();
+		model.schemaChanged();
+		try
+		{
+			this.name = ( String ) node.getProperty( MetaModelObject.KEY_NAME,
+				null );
+			for ( RelationshipType type : RESTRICTION_TYPES )
+			{
+				deleteAll( node, type );
+			}
+			deleteAll( node, null );
+
+			for ( String key : node.getPropertyKeys() )
+			{
+				node.removeProperty( key );
+			}
+			model.indexService().removeIndex( node, KEY_REMOVING );
+			node.delete();
+			this.deletedNodes.add( node.getId() );
+			this.tx.success();
+		}
+		finally
+		{
+			this.tx.finish();
+		}
+		committed( true );
+		return this.relationships;
+	}
+
+	/**
+	 * Deletes the relationships of type {@code typeOrNull} (all if
+	 * {@code null}) of {@code node}. Restrictions are deleted entirely.
+	 */
+	private void deleteAll( Node node, RelationshipType typeOrNull )
+	{
+		boolean more = true;
+		while ( more )
+		{
+			// The relationships are read again after each commit.
+			more = false;
+			Iterable<Relationship> rels = typeOrNull == null ?
+				node.getRelationships() :
+				node.getRelationships( typeOrNull, Direction.INCOMING );
+			for ( Relationship rel : rels )
+			{
+				if ( typeOrNull == null )
+				{
+					String type = rel.getType().name();
+					if ( type.equals(
+						MetaModelRelTypes.META_HAS_INSTANCE.name() ) )
+					{
+						model.typeCodes().instanceChanged( rel.getEndNode() );
+					}
+					else
+					{
+						model.relationshipChanged( rel.getStartNode().getId(),
+							rel.getEndNode().getId() );
+					}
+					if ( MetaModelTransactionEventHandler.HIERARCHY_TYPES.contains(
+						type ) )
+					{
+						model.hierarchyEdited( type, rel.getStartNode().getId(),
+							rel.getEndNode().getId(), false );
+					}
+					rel.delete();
+					this.relationships++;
+				}
+				else
+				{
+					deleteRestriction( rel.getStartNode() );
+				}
+				if ( deleted() )
+				{
+					more = true;
+					break;
+				}
+			}
+		}
+	}
+
+	private void deleteRestriction( Node restriction )
+	{
+		for ( Relationship rel : restriction.getRelationships() )
+		{
+			rel.delete();
+		}
+		restriction.delete();
+		model.pendingChanges().restrictionsRemoved();
+		this.deletedNodes.add( restriction.getId() );
+		this.restrictions++;
+	}
+
+	/**
+	 * Counts a deletion and commits the transaction every
+	 * {@link #batchSize} deletions.
+	 * @return whether or not the transaction was committed.
+	 */
+	private boolean deleted()
+	{
+		if ( ++this.inTx < this.batchSize )
+		{
+			return false;
+		}
+		this.tx.success();
+		this.tx.finish();
+		committed( false );
+		this.tx = model.graphDb().beginTx();
+		model.schemaChanged();
+		this.inTx = 0;
+		return true;
+	}
+
+	/**
+	 * Invalidates what the committed batch affected and reports progress.
+	 * The transaction event handler does the same on commit, but that
+	 * doesn't happen for batches nested in an outer transaction.
+	 */
+	private void committed( boolean done )
+	{
+		if ( this.restrictions > 0 )
+		{
+			model.restrictionIndex().clear();
+		}
+		if ( !this.deletedNodes.isEmpty() )
+		{
+			model.deleted( new HashSet<Long>( this.deletedNodes ) );
+			this.deletedNodes.clear();
+		}
+		if ( this.listenerOrNull != null )
+		{
+			this.listenerOrNull.progress( this.name, this.relationships,
+				this.restrictions, done );
+		}
+	}
+}
@@ -76,8 +76,8 @@ public class ClassRange extends RelationshipRange
 		this.rangeClasses = new HashSet<MetaModelClass>();
 		for ( Relationship rel : getRelationships( owner ) )
 		{
-			this.rangeClasses.add( new MetaModelClass( owner.model(),
-				rel.getEndNode() ) );
+			this.rangeClasses.add( ( ( MetaModelImpl ) owner.model() ).wrap(
+				MetaModelClass.class, rel.getEndNode() ) );
 		}
 	}
 	
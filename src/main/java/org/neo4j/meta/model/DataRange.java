@@ -12,7 +12,7 @@ import java.util.HashSet;
  */
 public class DataRange extends RdfDatatypeRange
 {
-	private static final String KEY_DATA_ARRAY = "data_array";
+	static final String KEY_DATA_ARRAY = "data_array";
 	
 	private Collection<Object> values;
 	
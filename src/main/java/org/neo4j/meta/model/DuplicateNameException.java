@@ -1,5 +1,10 @@
 package org.neo4j.meta.model;
 
+/**
+ * @deprecated not thrown anymore: names are unique within their namespace
+ * and kind, and the same name may be used in different namespaces.
+ */
+@Deprecated
 public class DuplicateNameException extends RuntimeException {
 
 	/**
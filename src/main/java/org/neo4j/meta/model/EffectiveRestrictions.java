@@ -0,0 +1,210 @@
+package org.neo4j.meta.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled, flat view of all the restrictions which applies to a
+ * {@link MetaModelClass}, i.e. its own restrictions as well as those of
+ * its super classes. For each property (or relationship type) the
+ * restrictions are ordered in the linearization order of the class
+ * hierarchy, the nearest first.
+ */
+class EffectiveRestrictions
+{
+	/**
+	 * Index of the min cardinality in cardinality arrays.
+	 */
+	static final int MIN = 0;
+	
+	/**
+	 * Index of the max cardinality in cardinality arrays.
+	 */
+	static final int MAX = 1;
+	
+	private static final MetaModelPropertyRestriction[] NO_PROPERTY_RESTRICTIONS =
+		new MetaModelPropertyRestriction[ 0 ];
+	private static final MetaModelRelationshipRestriction[]
+		NO_RELATIONSHIP_RESTRICTIONS = new MetaModelRelationshipRestriction[ 0 ];
+
+	private final Map<MetaModelProperty, MetaModelPropertyRestriction[]>
+		propertyRestrictions;
+	private final Map<MetaModelRelationship, MetaModelRelationshipRestriction[]>
+		relationshipRestrictions;
+	private final Map<MetaModelProperty, MetaModelPropertyRestriction>
+		nearestPropertyRestrictions;
+	private final Map<MetaModelRelationship, MetaModelRelationshipRestriction>
+		nearestRelationshipRestrictions;
+	private final Map<MetaModelThing, int[]> cardinalities =
+		new HashMap<MetaModelThing, int[]>();
+
+	private EffectiveRestrictions(
+		Map<MetaModelProperty, List<MetaModelPropertyRestriction>> properties,
+		Map<MetaModelRelationship, List<MetaModelRelationshipRestriction>>
+			relationships )
+	{
+		this.propertyRestrictions =
+			new LinkedHashMap<MetaModelProperty, MetaModelPropertyRestriction[]>();
+		Map<MetaModelProperty, MetaModelPropertyRestriction> nearestProperties =
+			new LinkedHashMap<MetaModelProperty, MetaModelPropertyRestriction>();
+		for ( Map.Entry<MetaModelProperty, List<MetaModelPropertyRestriction>>
+			entry : properties.entrySet() )
+		{
+			List<MetaModelPropertyRestriction> list = entry.getValue();
+			this.propertyRestrictions.put( entry.getKey(), list.toArray(
+				new MetaModelPropertyRestriction[ list.size() ] ) );
+			nearestProperties.put( entry.getKey(), list.get( 0 ) );
+			this.cardinalities.put( entry.getKey(), resolveCardinalities( list ) );
+		}
+		this.nearestPropertyRestrictions =
+			Collections.unmodifiableMap( nearestProperties );
+
+		this.relationshipRestrictions = new LinkedHashMap<MetaModelRelationship,
+			MetaModelRelationshipRestriction[]>();
+		Map<MetaModelRelationship, MetaModelRelationshipRestriction>
+			nearestRelationships = new LinkedHashMap<MetaModelRelationship,
+			MetaModelRelationshipRestriction>();
+		for ( Map.Entry<MetaModelRelationship,
+			List<MetaModelRelationshipRestriction>> entry :
+			relationships.entrySet() )
+		{
+			List<MetaModelRelationshipRestriction> list = entry.getValue();
+			this.relationshipRestrictions.put( entry.getKey(), list.toArray(
+				new MetaModelRelationshipRestriction[ list.size() ] ) );
+			nearestRelationships.put( entry.getKey(), list.get( 0 ) );
+			this.cardinalities.put( entry.getKey(), resolveCardinalities( list ) );
+		}
+		this.nearestRelationshipRestrictions =
+			Collections.unmodifiableMap( nearestRelationships );
+	}
+
+	private static int[] resolveCardinalities(
+		List<? extends MetaModelRestrictable<?>> restrictions )
+	{
+		int[] result = new int[] {
+			MetaModel.CARDINALITY_UNSET, MetaModel.CARDINALITY_UNSET };
+		for ( MetaModelRestrictable<?> restriction : restrictions )
+		{
+			if ( result[ MIN ] == MetaModel.CARDINALITY_UNSET )
+			{
+				result[ MIN ] = cardinality( restriction.getMinCardinality() );
+			}
+			if ( result[ MAX ] == MetaModel.CARDINALITY_UNSET )
+			{
+				result[ MAX ] = cardinality( restriction.getMaxCardinality() );
+			}
+		}
+		return result;
+	}
+	
+	static int cardinality( Integer cardinalityOrNull )
+	{
+		return cardinalityOrNull != null ? cardinalityOrNull :
+			MetaModel.CARDINALITY_UNSET;
+	}
+	
+	/**
+	 * Compiles the effective restrictions for {@code cls} by visiting it and
+	 * its super classes in linearization order, see {@link Linearization}.
+	 * Must be called within a transaction.
+	 * @param cls the class to compile the restrictions for.
+	 * @return the compiled restrictions.
+	 */
+	static EffectiveRestrictions compile( MetaModelClass cls )
+	{
+		Map<MetaModelProperty, List<MetaModelPropertyRestriction>> properties =
+			new LinkedHashMap<MetaModelProperty,
+			List<MetaModelPropertyRestriction>>();
+		Map<MetaModelRelationship, List<MetaModelRelationshipRestriction>>
+			relationships = new LinkedHashMap<MetaModelRelationship,
+			List<MetaModelRelationshipRestriction>>();
+		for ( MetaModelClass superClass : cls.linearization() )
+		{
+			collect( superClass, properties, relationships );
+		}
+		return new EffectiveRestrictions( properties, relationships );
+	}
+
+	private static void collect( MetaModelClass cls,
+		Map<MetaModelProperty, List<MetaModelPropertyRestriction>> properties,
+		Map<MetaModelRelationship, List<MetaModelRelationshipRestriction>>
+			relationships )
+	{
+		for ( MetaModelPropertyRestriction restriction :
+			cls.getDirectPropertyRestrictions() )
+		{
+			MetaModelProperty property = restriction.getMetaProperty();
+			List<MetaModelPropertyRestriction> list = properties.get( property );
+			if ( list == null )
+			{
+				list = new ArrayList<MetaModelPropertyRestriction>();
+				properties.put( property, list );
+			}
+			list.add( restriction );
+		}
+		for ( MetaModelRelationshipRestriction restriction :
+			cls.getDirectRelationshipRestrictions() )
+		{
+			MetaModelRelationship relationshipType =
+				restriction.getMetaRelationshipType();
+			List<MetaModelRelationshipRestriction> list =
+				relationships.get( relationshipType );
+			if ( list == null )
+			{
+				list = new ArrayList<MetaModelRelationshipRestriction>();
+				relationships.put( relationshipType, list );
+			}
+			list.add( restriction );
+		}
+	}
+
+	/**
+	 * @return the restrictions on {@code property}, the nearest first.
+	 */
+	MetaModelPropertyRestriction[] restrictionsFor( MetaModelProperty property )
+	{
+		MetaModelPropertyRestriction[] result =
+			this.propertyRestrictions.get( property );
+		return result != null ? result : NO_PROPERTY_RESTRICTIONS;
+	}
+
+	/**
+	 * @return the restrictions on {@code relationshipType}, the nearest first.
+	 */
+	MetaModelRelationshipRestriction[] restrictionsFor(
+		MetaModelRelationship relationshipType )
+	{
+		MetaModelRelationshipRestriction[] result =
+			this.relationshipRestrictions.get( relationshipType );
+		return result != null ? result : NO_RELATIONSHIP_RESTRICTIONS;
+	}
+
+	/**
+	 * @param propertyOrRelationshipType the property or relationship type.
+	 * @param minOrMax {@link #MIN} or {@link #MAX}.
+	 * @return the cardinality from the nearest restriction which has one,
+	 * or {@link MetaModel#CARDINALITY_UNSET}.
+	 */
+	int cardinality( MetaModelThing propertyOrRelationshipType, int minOrMax )
+	{
+		int[] result = this.cardinalities.get( propertyOrRelationshipType );
+		return result != null ? result[ minOrMax ] :
+			MetaModel.CARDINALITY_UNSET;
+	}
+	
+	Map<MetaModelProperty, MetaModelPropertyRestriction>
+		nearestPropertyRestrictions()
+	{
+		return this.nearestPropertyRestrictions;
+	}
+
+	Map<MetaModelRelationship, MetaModelRelationshipRestriction>
+		nearestRelationshipRestrictions()
+	{
+		return this.nearestRelationshipRestrictions;
+	}
+}
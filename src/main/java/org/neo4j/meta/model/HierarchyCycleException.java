@@ -0,0 +1,18 @@
+package org.neo4j.meta.model;
+
+/**
+ * Thrown when adding a super (class, property or relationship type) would
+ * make a thing a (recursive) super of itself.
+ */
+public class HierarchyCycleException extends RuntimeException
+{
+	private static final long serialVersionUID = 4206734431939155203L;
+
+	/**
+	 * @param message the detail message.
+	 */
+	public HierarchyCycleException( String message )
+	{
+		super( message );
+	}
+}
@@ -0,0 +1,596 @@
+package org.neo4j.meta.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * The transitive closure of one of the hierarchies (classes, properties or
+ * relationship types), so that {@link MetaModelThing#isSubOf(MetaModelThing)}
+ * can be answered without touching the graph.
+ *
+ * Every thing gets a dense number and a sorted array of the numbers of all
+ * its (recursive) supers, so a check is a binary search in one array.
+ * Cycles are allowed. The index is built from the graph once and then
+ * maintained as hierarchy relationships are added and removed, see
+ * {@link #added(long, long)} and {@link #removed(long, long)}, which only
+ * touch the sub and the things below it. Reads don't take any lock, so a
+ * thing is only numbered, and found by {@link #contains(long)}, once its
+ * supers are in the index.
+ *
+ * Interval (pre/post-order) labels aren't used since they only describe a
+ * tree: multiple inheritance needs extra labels on top of them, and adding
+ * a relationship may relabel large parts of the hierarchy. A bitset of the
+ * supers per thing needs a bit per thing in the hierarchy, i.e. memory
+ * quadratic in its size. The ancestor arrays take memory in proportion to
+ * the number of things times their depth, which is small for real
+ * taxonomies, and can be updated for just the things below a changed
+ * relationship, at the cost of a check being logarithmic in the number of
+ * supers instead of constant.
+ */
+class HierarchyIndex
+{
+	private static final int[] NONE = new int[ 0 ];
+
+	private final ConcurrentMap<Long, Integer> numbers =
+		new ConcurrentHashMap<Long, Integer>();
+	private volatile AtomicReferenceArray<int[]> ancestors =
+		new AtomicReferenceArray<int[]>( 16 );
+	private volatile long[] nodeIds = new long[ 16 ];
+
+	// Guarded by this.
+	private final List<Set<Integer>> supers = new ArrayList<Set<Integer>>();
+	private final List<Set<Integer>> subs = new ArrayList<Set<Integer>>();
+
+	/**
+	 * Reads the hierarchy from the graph, must be called within a
+	 * transaction.
+	 * @param root the node of the meta model root.
+	 * @param kind the relationship type from namespaces to the things.
+	 * @param subType the relationship type from a thing to its supers.
+	 */
+	HierarchyIndex( Node root, RelationshipType kind,
+		RelationshipType subType )
+	{
+		List<Node> nodes = new ArrayList<Node>();
+		for ( Relationship namespace : root.getRelationships(
+			MetaModelRelTypes.META_NAMESPACE, Direction.OUTGOING ) )
+		{
+			for ( Relationship member : namespace.getEndNode().getRelationships(
+				kind, Direction.OUTGOING ) )
+			{
+				number( member.getEndNode(), nodes );
+			}
+		}
+
+		// Supers (and subs) may be outside of the namespaces.
+		synchronized ( this )
+		{
+			for ( int i = 0; i < nodes.size(); i++ )
+			{
+				for ( Relationship rel : nodes.get( i ).getRelationships(
+					subType, Direction.OUTGOING ) )
+				{
+					int superNumber = number( rel.getEndNode(), nodes );
+					this.supers.get( i ).add( superNumber );
+					this.subs.get( superNumber ).add( i );
+				}
+				for ( Relationship rel : nodes.get( i ).getRelationships(
+					subType, Direction.INCOMING ) )
+				{
+					number( rel.getStartNode(), nodes );
+				}
+			}
+			List<Integer> all = new ArrayList<Integer>( nodes.size() );
+			for ( int i = 0; i < nodes.size(); i++ )
+			{
+				all.add( i );
+			}
+			recompute( all );
+		}
+	}
+
+	private int number( Node node, List<Node> nodes )
+	{
+		int number = number( node.getId() );
+		if ( number == nodes.size() )
+		{
+			nodes.add( node );
+		}
+		return number;
+	}
+
+	private synchronized int number( long nodeId )
+	{
+		Integer number = this.numbers.get( nodeId );
+		if ( number == null )
+		{
+			number = allocate( nodeId );
+			this.numbers.put( nodeId, number );
+		}
+		return number;
+	}
+
+	/**
+	 * Reserves a number for {@code nodeId}, which readers won't find until
+	 * it's put in {@link #numbers}. Must be called while holding the lock
+	 * of this index.
+	 */
+	private int allocate( long nodeId )
+	{
+		int number = this.supers.size();
+		this.supers.add( new LinkedHashSet<Integer>() );
+		this.subs.add( new LinkedHashSet<Integer>() );
+		AtomicReferenceArray<int[]> current = this.ancestors;
+		if ( number >= current.length() )
+		{
+			AtomicReferenceArray<int[]> grown =
+				new AtomicReferenceArray<int[]>( current.length() * 2 );
+			for ( int i = 0; i < current.length(); i++ )
+			{
+				grown.set( i, current.get( i ) );
+			}
+			// Published before the number, so readers which find the
+			// number also find its slot.
+			this.ancestors = grown;
+			this.nodeIds = Arrays.copyOf( this.nodeIds, grown.length() );
+		}
+		this.nodeIds[ number ] = nodeId;
+		return number;
+	}
+
+	private int[] ancestors( int number )
+	{
+		int[] result = this.ancestors.get( number );
+		return result != null ? result : NONE;
+	}
+
+	/**
+	 * Computes the supers of {@code affected} again, from their direct
+	 * supers. The supers of things not in {@code affected} must be right.
+	 */
+	private void recompute( Collection<Integer> affected )
+	{
+		Set<Integer> pending = new HashSet<Integer>( affected );
+		Map<Integer, Integer> waiting = new HashMap<Integer, Integer>();
+		LinkedList<Integer> ready = new LinkedList<Integer>();
+		for ( int thing : pending )
+		{
+			int count = 0;
+			for ( int superNumber : this.supers.get( thing ) )
+			{
+				if ( pending.contains( superNumber ) )
+				{
+					count++;
+				}
+			}
+			waiting.put( thing, count );
+			if ( count == 0 )
+			{
+				ready.add( thing );
+			}
+		}
+
+		// Supers before subs, so that the supers of a thing are known
+		// when it's computed.
+		while ( !ready.isEmpty() )
+		{
+			int thing = ready.removeFirst();
+			pending.remove( thing );
+			int[] result = NONE;
+			for ( int superNumber : this.supers.get( thing ) )
+			{
+				result = merge( result, withSelf( superNumber ) );
+			}
+			this.ancestors.set( thing, result );
+			for ( int sub : this.subs.get( thing ) )
+			{
+				if ( pending.contains( sub ) )
+				{
+					int count = waiting.get( sub ) - 1;
+					waiting.put( sub, count );
+					if ( count == 0 )
+					{
+						ready.add( sub );
+					}
+				}
+			}
+		}
+
+		// What's left is in or below a cycle.
+		for ( int thing : pending )
+		{
+			this.ancestors.set( thing, reachable( thing ) );
+		}
+	}
+
+	private int[] reachable( int thing )
+	{
+		Set<Integer> found = new HashSet<Integer>();
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		queue.add( thing );
+		while ( !queue.isEmpty() )
+		{
+			for ( int superNumber : this.supers.get( queue.removeFirst() ) )
+			{
+				if ( found.add( superNumber ) )
+				{
+					queue.add( superNumber );
+				}
+			}
+		}
+		int[] result = new int[ found.size() ];
+		int i = 0;
+		for ( int superNumber : found )
+		{
+			result[ i++ ] = superNumber;
+		}
+		Arrays.sort( result );
+		return result;
+	}
+
+	private int[] withSelf( int thing )
+	{
+		return merge( ancestors( thing ), new int[] { thing } );
+	}
+
+	/**
+	 * @return the sorted union of two sorted arrays.
+	 */
+	private static int[] merge( int[] a, int[] b )
+	{
+		int[] result = new int[ a.length + b.length ];
+		int i = 0, j = 0, size = 0;
+		while ( i < a.length || j < b.length )
+		{
+			int next;
+			if ( j >= b.length || ( i < a.length && a[ i ] <= b[ j ] ) )
+			{
+				next = a[ i++ ];
+			}
+			else
+			{
+				next = b[ j++ ];
+			}
+			if ( size == 0 || result[ size - 1 ] != next )
+			{
+				result[ size++ ] = next;
+			}
+		}
+		return size == result.length ? result : Arrays.copyOf( result, size );
+	}
+
+	/**
+	 * @return whether or not sorted {@code a} contains all of sorted
+	 * {@code b}.
+	 */
+	private static boolean containsAll( int[] a, int[] b )
+	{
+		int i = 0;
+		for ( int value : b )
+		{
+			while ( i < a.length && a[ i ] < value )
+			{
+				i++;
+			}
+			if ( i == a.length || a[ i ] != value )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Records a new hierarchy relationship. The new supers are added to
+	 * {@code subId} and the things below it, stopping where they're
+	 * already known.
+	 */
+	synchronized void added( long subId, long superId )
+	{
+		// New things are numbered last, when their supers are known.
+		Integer sub = this.numbers.get( subId );
+		boolean newSub = sub == null;
+		if ( newSub )
+		{
+			sub = allocate( subId );
+		}
+		Integer superNumber = superId == subId ? sub :
+			this.numbers.get( superId );
+		boolean newSuper = superNumber == null;
+		if ( newSuper )
+		{
+			superNumber = allocate( superId );
+		}
+		if ( this.supers.get( sub ).add( superNumber ) )
+		{
+			this.subs.get( superNumber ).add( sub );
+			addedSupers( sub, superNumber );
+		}
+		if ( newSuper )
+		{
+			this.numbers.put( superId, superNumber );
+		}
+		if ( newSub )
+		{
+			this.numbers.put( subId, sub );
+		}
+	}
+
+	private void addedSupers( int sub, int superNumber )
+	{
+		int[] gained = withSelf( superNumber );
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		queue.add( sub );
+		while ( !queue.isEmpty() )
+		{
+			int thing = queue.removeFirst();
+			int[] current = ancestors( thing );
+			if ( containsAll( current, gained ) )
+			{
+				// Then everything below it has them too.
+				continue;
+			}
+			this.ancestors.set( thing, merge( current, gained ) );
+			queue.addAll( this.subs.get( thing ) );
+		}
+	}
+
+	/**
+	 * Records a removed hierarchy relationship. The supers of
+	 * {@code subId} and the things below it are computed again.
+	 */
+	synchronized void removed( long subId, long superId )
+	{
+		Integer sub = this.numbers.get( subId );
+		Integer superNumber = this.numbers.get( superId );
+		if ( sub == null || superNumber == null ||
+			!this.supers.get( sub ).remove( superNumber ) )
+		{
+			return;
+		}
+		this.subs.get( superNumber ).remove( sub );
+
+		Set<Integer> below = new LinkedHashSet<Integer>();
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+		below.add( sub );
+		queue.add( sub );
+		while ( !queue.isEmpty() )
+		{
+			for ( int thing : this.subs.get( queue.removeFirst() ) )
+			{
+				if ( below.add( thing ) )
+				{
+					queue.add( thing );
+				}
+			}
+		}
+		recompute( below );
+	}
+
+	/**
+	 * @return the sorted intersection of two sorted arrays.
+	 */
+	private static int[] intersect( int[] a, int[] b )
+	{
+		int[] result = new int[ Math.min( a.length, b.length ) ];
+		int i = 0, j = 0, size = 0;
+		while ( i < a.length && j < b.length )
+		{
+			if ( a[ i ] < b[ j ] )
+			{
+				i++;
+			}
+			else if ( a[ i ] > b[ j ] )
+			{
+				j++;
+			}
+			else
+			{
+				result[ size++ ] = a[ i ];
+				i++;
+				j++;
+			}
+		}
+		return size == result.length ? result : Arrays.copyOf( result, size );
+	}
+
+	private int[] commonNumbers( long[] ids )
+	{
+		int[] common = null;
+		for ( long id : ids )
+		{
+			int[] withSelf = withSelf( this.numbers.get( id ) );
+			common = common == null ? withSelf : intersect( common, withSelf );
+			if ( common.length == 0 )
+			{
+				break;
+			}
+		}
+		return common == null ? NONE : common;
+	}
+
+	private long[] toIds( int[] numbers, int size )
+	{
+		long[] ids = this.nodeIds;
+		long[] result = new long[ size ];
+		for ( int i = 0; i < size; i++ )
+		{
+			result[ i ] = ids[ numbers[ i ] ];
+		}
+		return result;
+	}
+
+	/**
+	 * @param ids the ids of nodes in this hierarchy.
+	 * @return the ids of the nodes which all of {@code ids} are, or are
+	 * (recursive) subs of. The cost depends on the number of supers of the
+	 * given nodes, not on the size of the hierarchy.
+	 */
+	long[] commonSupers( long... ids )
+	{
+		int[] common = commonNumbers( ids );
+		return toIds( common, common.length );
+	}
+
+	/**
+	 * @param id the id of a node in this hierarchy.
+	 * @return the ids of that node and all its (recursive) supers.
+	 */
+	long[] supers( long id )
+	{
+		int[] all = withSelf( this.numbers.get( id ) );
+		return toIds( all, all.length );
+	}
+
+	/**
+	 * @param ids the ids of nodes in this hierarchy.
+	 * @return the ids of the common supers (see {@link #commonSupers(long...)})
+	 * which aren't supers of any other common super, i.e. the most specific
+	 * ones. There may be more than one since there may be multiple
+	 * inheritance.
+	 */
+	long[] leastCommonSupers( long... ids )
+	{
+		int[] common = commonNumbers( ids );
+		Set<Integer> above = new HashSet<Integer>();
+		for ( int thing : common )
+		{
+			for ( int superNumber : ancestors( thing ) )
+			{
+				if ( superNumber != thing )
+				{
+					above.add( superNumber );
+				}
+			}
+		}
+		int[] least = new int[ common.length ];
+		int size = 0;
+		for ( int thing : common )
+		{
+			if ( !above.contains( thing ) )
+			{
+				least[ size++ ] = thing;
+			}
+		}
+		return toIds( least, size );
+	}
+
+	/**
+	 * Reads {@code node} and its (recursive) supers from the graph, up to
+	 * the things which are in this hierarchy already, without changing
+	 * this index. Used for things which aren't in any namespace, see
+	 * {@link #include(Map)}. Must be called within a transaction.
+	 * @param node the node to read.
+	 * @param subType the relationship type from a thing to its supers.
+	 * @return the ids of the direct supers of the things read, by the ids
+	 * of the things. Empty if {@code node} is in this hierarchy.
+	 */
+	Map<Long, Set<Long>> read( Node node, RelationshipType subType )
+	{
+		Map<Long, Set<Long>> result = new HashMap<Long, Set<Long>>();
+		if ( contains( node.getId() ) )
+		{
+			return result;
+		}
+		result.put( node.getId(), new HashSet<Long>() );
+		LinkedList<Node> queue = new LinkedList<Node>();
+		queue.add( node );
+		while ( !queue.isEmpty() )
+		{
+			Node sub = queue.removeFirst();
+			Set<Long> direct = result.get( sub.getId() );
+			for ( Relationship rel : sub.getRelationships( subType,
+				Direction.OUTGOING ) )
+			{
+				Node superNode = rel.getEndNode();
+				Long superId = superNode.getId();
+				direct.add( superId );
+				if ( !contains( superId ) && !result.containsKey( superId ) )
+				{
+					result.put( superId, new HashSet<Long>() );
+					queue.add( superNode );
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the things read by {@link #read(Node, RelationshipType)}. Their
+	 * supers are computed before they're numbered, so a reader which finds
+	 * one of them finds all its supers too. The caller must make sure that
+	 * no hierarchy relationship has been committed since they were read.
+	 * @param read the things to add and their direct supers.
+	 */
+	synchronized void include( Map<Long, Set<Long>> read )
+	{
+		Map<Long, Integer> allocated = new HashMap<Long, Integer>();
+		for ( Long id : read.keySet() )
+		{
+			if ( !contains( id ) )
+			{
+				allocated.put( id, allocate( id ) );
+			}
+		}
+		for ( Map.Entry<Long, Integer> entry : allocated.entrySet() )
+		{
+			int sub = entry.getValue();
+			for ( Long superId : read.get( entry.getKey() ) )
+			{
+				Integer superNumber = allocated.get( superId );
+				if ( superNumber == null )
+				{
+					superNumber = this.numbers.get( superId );
+				}
+				this.supers.get( sub ).add( superNumber );
+				this.subs.get( superNumber ).add( sub );
+			}
+		}
+		recompute( allocated.values() );
+		for ( Map.Entry<Long, Integer> entry : allocated.entrySet() )
+		{
+			this.numbers.put( entry.getKey(), entry.getValue() );
+		}
+	}
+
+	/**
+	 * @return whether or not {@code node} is in this hierarchy.
+	 */
+	boolean contains( long nodeId )
+	{
+		return this.numbers.containsKey( nodeId );
+	}
+
+	/**
+	 * @param subId the id of a node in this hierarchy.
+	 * @param superId the id of a node in this hierarchy.
+	 * @return whether or not {@code subId} is {@code superId} or a
+	 * (recursive) sub of it.
+	 */
+	boolean isSubOf( long subId, long superId )
+	{
+		if ( subId == superId )
+		{
+			return true;
+		}
+		int sub = this.numbers.get( subId );
+		int superNumber = this.numbers.get( superId );
+		return Arrays.binarySearch( ancestors( sub ), superNumber ) >= 0;
+	}
+}
@@ -0,0 +1,102 @@
+package org.neo4j.meta.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The relationships of one hierarchy which the current transaction has
+ * created or deleted through the meta model. The shared
+ * {@link HierarchyIndex} only gets them when the transaction has been
+ * committed, so the transaction reads its own view of the hierarchy as the
+ * index plus these relationships, see
+ * {@link MetaModelImpl#supers(org.neo4j.graphdb.RelationshipType,
+ * org.neo4j.graphdb.Node)}. Deleted relationships can't be subtracted from
+ * the index, with those the graph is read instead.
+ */
+class HierarchyOverlay
+{
+	private final List<long[]> added = new ArrayList<long[]>();
+	private boolean removals;
+
+	void added( long subId, long superId )
+	{
+		this.added.add( new long[] { subId, superId } );
+	}
+
+	void removed( long subId, long superId )
+	{
+		for ( Iterator<long[]> iterator = this.added.iterator();
+			iterator.hasNext(); )
+		{
+			long[] edge = iterator.next();
+			if ( edge[ 0 ] == subId && edge[ 1 ] == superId )
+			{
+				// Created in this transaction, so it isn't in the index.
+				iterator.remove();
+				return;
+			}
+		}
+		this.removals = true;
+	}
+
+	/**
+	 * @param index the index of the committed hierarchy.
+	 * @return whether or not {@link #supers(HierarchyIndex, long)} can be
+	 * used with {@code index}, i.e. whether no relationships have been
+	 * deleted and {@code index} contains the ends of the created ones.
+	 */
+	boolean appliesTo( HierarchyIndex index )
+	{
+		if ( this.removals )
+		{
+			return false;
+		}
+		for ( long[] edge : this.added )
+		{
+			if ( !index.contains( edge[ 0 ] ) || !index.contains( edge[ 1 ] ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param index the index of the committed hierarchy, which this overlay
+	 * {@link #appliesTo(HierarchyIndex)}.
+	 * @param id the id of a node in {@code index}.
+	 * @return the ids of that node and all its (recursive) supers, including
+	 * the ones reached through the created relationships.
+	 */
+	Set<Long> supers( HierarchyIndex index, long id )
+	{
+		Set<Long> result = new HashSet<Long>();
+		addAll( result, index.supers( id ) );
+		boolean grown = true;
+		while ( grown )
+		{
+			grown = false;
+			for ( long[] edge : this.added )
+			{
+				if ( result.contains( edge[ 0 ] ) &&
+					!result.contains( edge[ 1 ] ) )
+				{
+					addAll( result, index.supers( edge[ 1 ] ) );
+					grown = true;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void addAll( Set<Long> set, long[] ids )
+	{
+		for ( long id : ids )
+		{
+			set.add( id );
+		}
+	}
+}
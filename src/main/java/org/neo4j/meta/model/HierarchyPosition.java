@@ -0,0 +1,43 @@
+package org.neo4j.meta.model;
+
+/**
+ * A thing found when walking a hierarchy, together with its distance from
+ * where the walk started, see {@link MetaModelThing#getAllSupers(int)} and
+ * {@link MetaModelThing#getAllSubs(int)}.
+ * @param <T> the type of {@link MetaModelThing}.
+ */
+public class HierarchyPosition<T extends MetaModelThing>
+{
+	private final T thing;
+	private final int depth;
+
+	HierarchyPosition( T thing, int depth )
+	{
+		this.thing = thing;
+		this.depth = depth;
+	}
+
+	/**
+	 * @return the thing at this position.
+	 */
+	public T getThing()
+	{
+		return this.thing;
+	}
+
+	/**
+	 * @return the smallest number of hierarchy relationships between the
+	 * thing where the walk started and this thing, {@code 1} for direct
+	 * supers or subs.
+	 */
+	public int getDepth()
+	{
+		return this.depth;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.thing + "@" + this.depth;
+	}
+}
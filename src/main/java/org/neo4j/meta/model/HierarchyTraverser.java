@@ -0,0 +1,136 @@
+package org.neo4j.meta.model;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Walks a hierarchy breadth first from a thing, up to its supers or down
+ * to its subs, nearest first. The walk is lazy: a thing's relationships
+ * are only read when the iteration gets to them, so stopping early (or
+ * limiting the depth) only touches the part of the hierarchy which was
+ * returned. Each thing is returned once, at its smallest depth.
+ * @param <T> the type of {@link MetaModelThing}.
+ */
+class HierarchyTraverser<T extends MetaModelThing>
+	implements Iterable<HierarchyPosition<T>>
+{
+	private final MetaModelImpl model;
+	private final Node start;
+	private final Class<T> type;
+	private final RelationshipType subType;
+	private final Direction direction;
+	private final int maxDepth;
+
+	/**
+	 * @param direction {@link Direction#OUTGOING} for supers,
+	 * {@link Direction#INCOMING} for subs.
+	 * @param maxDepth the max depth to return things from.
+	 */
+	HierarchyTraverser( MetaModelImpl model, Node start, Class<T> type,
+		RelationshipType subType, Direction direction, int maxDepth )
+	{
+		if ( maxDepth < 0 )
+		{
+			throw new IllegalArgumentException( "Invalid max depth " +
+				maxDepth );
+		}
+		this.model = model;
+		this.start = start;
+		this.type = type;
+		this.subType = subType;
+		this.direction = direction;
+		this.maxDepth = maxDepth;
+	}
+
+	public Iterator<HierarchyPosition<T>> iterator()
+	{
+		return new Walk();
+	}
+
+	private class Walk implements Iterator<HierarchyPosition<T>>
+	{
+		// The things whose relationships are being or will be read, in
+		// order, with the depth of their subs or supers.
+		private final LinkedList<Node> toExpand = new LinkedList<Node>();
+		private final LinkedList<Integer> depths = new LinkedList<Integer>();
+		private final Set<Long> seen = new HashSet<Long>();
+		private Iterator<Relationship> current;
+		private HierarchyPosition<T> next;
+
+		Walk()
+		{
+			this.seen.add( start.getId() );
+			if ( maxDepth > 0 )
+			{
+				this.toExpand.add( start );
+				this.depths.add( 1 );
+			}
+		}
+
+		public boolean hasNext()
+		{
+			if ( this.next == null )
+			{
+				this.next = fetch();
+			}
+			return this.next != null;
+		}
+
+		public HierarchyPosition<T> next()
+		{
+			if ( !hasNext() )
+			{
+				throw new NoSuchElementException();
+			}
+			HierarchyPosition<T> result = this.next;
+			this.next = null;
+			return result;
+		}
+
+		private HierarchyPosition<T> fetch()
+		{
+			while ( !this.toExpand.isEmpty() )
+			{
+				if ( this.current == null )
+				{
+					this.current = this.toExpand.getFirst().getRelationships(
+						subType, direction ).iterator();
+				}
+				int depth = this.depths.getFirst();
+				while ( this.current.hasNext() )
+				{
+					Node found = this.current.next().getOtherNode(
+						this.toExpand.getFirst() );
+					if ( !this.seen.add( found.getId() ) )
+					{
+						continue;
+					}
+					if ( depth < maxDepth )
+					{
+						this.toExpand.add( found );
+						this.depths.add( depth + 1 );
+					}
+					return new HierarchyPosition<T>(
+						model.wrap( type, found ), depth );
+				}
+				this.toExpand.removeFirst();
+				this.depths.removeFirst();
+				this.current = null;
+			}
+			return null;
+		}
+
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.util.Collection;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.util.RelationshipSet;
 
 /**
@@ -41,6 +42,37 @@ public class InstanceCollection extends RelationshipSet<Node>
 		return node;
 	}
 	
+	@Override
+	public boolean add( Node item )
+	{
+		// One transaction, so that the change is reported as pending
+		// before it's committed.
+		MetaModelImpl meta = ( MetaModelImpl ) model;
+		Transaction tx = meta.graphDb().beginTx();
+		try
+		{
+			boolean added = super.add( item );
+			if ( added )
+			{
+				meta.typeCodes().instanceChanged( item );
+			}
+			tx.success();
+			return added;
+		}
+		finally
+		{
+			tx.finish();
+		}
+	}
+	
+	@Override
+	protected void removeItem( Relationship rel )
+	{
+		( ( MetaModelImpl ) model ).typeCodes().instanceChanged(
+			rel.getEndNode() );
+		super.removeItem( rel );
+	}
+	
 //	@Override
 //	public boolean add( Node item )
 //	{
@@ -80,6 +80,7 @@ public abstract class InstanceRange extends Range<InstanceRange>
 			{
 				range.store( owner );
 			}
+			schemaChanged( owner.model() );
 			tx.success();
 		}
 		finally
@@ -0,0 +1,189 @@
+package org.neo4j.meta.model;
+
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the linearization of a {@link MetaModelThing} and its super
+ * things, i.e. an ordering of the thing and all its (recursive) super things
+ * where each one occurs only once, in the order they should be consulted
+ * when resolving values.
+ *
+ * The C3 linearization (as in f.ex. Python and Dylan) is used, which means
+ * that a thing always comes before its super things and that the order of
+ * the direct supers is preserved. For hierarchies where no such order
+ * exists (inconsistent orderings of supers or cycles) the order is instead
+ * a depth first pre-order where each thing is only visited once.
+ */
+abstract class Linearization
+{
+	/**
+	 * Must be called within a transaction.
+	 * @param thing the thing to compute the linearization for.
+	 * @return {@code thing} followed by its super things in linearization
+	 * order. The component type of the returned array is the class of
+	 * {@code thing}.
+	 */
+	static MetaModelThing[] compute( MetaModelThing thing )
+	{
+		List<MetaModelThing> result = c3( thing,
+			new HashMap<MetaModelThing, List<MetaModelThing>>(),
+			new HashSet<MetaModelThing>() );
+		if ( result == null )
+		{
+			result = new ArrayList<MetaModelThing>();
+			depthFirst( thing, new HashSet<MetaModelThing>(), result );
+		}
+		MetaModelThing[] array = ( MetaModelThing[] ) Array.newInstance(
+			thing.getClass(), result.size() );
+		return result.toArray( array );
+	}
+
+	/**
+	 * @return the C3 linearization of {@code thing} or {@code null} if
+	 * there is none.
+	 */
+	private static List<MetaModelThing> c3( MetaModelThing thing,
+		Map<MetaModelThing, List<MetaModelThing>> done,
+		Set<MetaModelThing> inProgress )
+	{
+		List<MetaModelThing> known = done.get( thing );
+		if ( known != null )
+		{
+			return known;
+		}
+		if ( !inProgress.add( thing ) )
+		{
+			// A cycle
+			return null;
+		}
+
+		List<MetaModelThing> supers =
+			new ArrayList<MetaModelThing>( thing.getDirectSupers() );
+		List<ArrayDeque<MetaModelThing>> sequences =
+			new ArrayList<ArrayDeque<MetaModelThing>>();
+		for ( MetaModelThing superThing : supers )
+		{
+			List<MetaModelThing> superLinearization =
+				c3( superThing, done, inProgress );
+			if ( superLinearization == null )
+			{
+				return null;
+			}
+			sequences.add(
+				new ArrayDeque<MetaModelThing>( superLinearization ) );
+		}
+		sequences.add( new ArrayDeque<MetaModelThing>( supers ) );
+
+		List<MetaModelThing> result = new ArrayList<MetaModelThing>();
+		result.add( thing );
+		if ( !merge( sequences, result ) )
+		{
+			return null;
+		}
+		inProgress.remove( thing );
+		done.put( thing, result );
+		return result;
+	}
+
+	/**
+	 * The C3 merge. Instead of scanning every sequence for each candidate,
+	 * the number of sequences having each thing in its tail (i.e. not as
+	 * its head) is counted up front and kept up to date as heads are
+	 * removed, so a candidate is checked in constant time.
+	 */
+	private static boolean merge( List<ArrayDeque<MetaModelThing>> sequences,
+		List<MetaModelThing> result )
+	{
+		Map<MetaModelThing, Integer> tailCounts =
+			new HashMap<MetaModelThing, Integer>();
+		for ( ArrayDeque<MetaModelThing> sequence : sequences )
+		{
+			Iterator<MetaModelThing> iterator = sequence.iterator();
+			if ( iterator.hasNext() )
+			{
+				iterator.next();
+			}
+			while ( iterator.hasNext() )
+			{
+				MetaModelThing thing = iterator.next();
+				Integer count = tailCounts.get( thing );
+				tailCounts.put( thing, count == null ? 1 : count + 1 );
+			}
+		}
+
+		while ( true )
+		{
+			for ( Iterator<ArrayDeque<MetaModelThing>> iterator =
+				sequences.iterator(); iterator.hasNext(); )
+			{
+				if ( iterator.next().isEmpty() )
+				{
+					iterator.remove();
+				}
+			}
+			if ( sequences.isEmpty() )
+			{
+				return true;
+			}
+
+			MetaModelThing candidate = null;
+			for ( ArrayDeque<MetaModelThing> sequence : sequences )
+			{
+				MetaModelThing head = sequence.getFirst();
+				if ( !tailCounts.containsKey( head ) )
+				{
+					candidate = head;
+					break;
+				}
+			}
+			if ( candidate == null )
+			{
+				return false;
+			}
+
+			result.add( candidate );
+			for ( ArrayDeque<MetaModelThing> sequence : sequences )
+			{
+				if ( sequence.getFirst().equals( candidate ) )
+				{
+					sequence.removeFirst();
+					MetaModelThing newHead = sequence.peekFirst();
+					if ( newHead != null )
+					{
+						int count = tailCounts.get( newHead ) - 1;
+						if ( count == 0 )
+						{
+							tailCounts.remove( newHead );
+						}
+						else
+						{
+							tailCounts.put( newHead, count );
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private static void depthFirst( MetaModelThing thing,
+		Set<MetaModelThing> visited, List<MetaModelThing> result )
+	{
+		if ( !visited.add( thing ) )
+		{
+			return;
+		}
+		result.add( thing );
+		for ( MetaModelThing superThing : thing.getDirectSupers() )
+		{
+			depthFirst( superThing, visited, result );
+		}
+	}
+}
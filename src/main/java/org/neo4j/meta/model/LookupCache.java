@@ -0,0 +1,84 @@
+package org.neo4j.meta.model;
+
+import java.util.Arrays;
+
+/**
+ * Memoizes the results of {@link MetaModel#lookup} calls, keyed by the
+ * property (or relationship type), the finder and the ordered list of
+ * classes. Lookups which didn't find any value are cached as well, as
+ * {@link #ABSENT}, since those are the most expensive ones (they go through
+ * the entire class and property hierarchies) and also very common.
+ */
+class LookupCache extends SchemaCache<LookupCache.Key, Object>
+{
+	/**
+	 * The cached value of a lookup which didn't find any value.
+	 */
+	static final Object ABSENT = new Object();
+	
+	LookupCache( int maxSize, SchemaEpoch epoch, PendingChanges pending )
+	{
+		super( "lookups", maxSize, epoch, pending );
+	}
+	
+	/**
+	 * @param value a looked up value, or {@code null}.
+	 * @return the value to cache for {@code value}.
+	 */
+	static Object mask( Object value )
+	{
+		return value != null ? value : ABSENT;
+	}
+	
+	/**
+	 * @param cachedValue a value returned from {@link #get(Object)}.
+	 * @return the looked up value which {@code cachedValue} represents.
+	 */
+	static Object unmask( Object cachedValue )
+	{
+		return cachedValue != ABSENT ? cachedValue : null;
+	}
+	
+	/**
+	 * The key of a lookup, the finders are compared by identity.
+	 */
+	static final class Key
+	{
+		private final long target;
+		private final Object finder;
+		private final long[] classes;
+		private final int hashCode;
+
+		Key( MetaModelObject target, Object finder, MetaModelClass[] classes )
+		{
+			this.target = target.node().getId();
+			this.finder = finder;
+			this.classes = new long[ classes.length ];
+			for ( int i = 0; i < classes.length; i++ )
+			{
+				this.classes[ i ] = classes[ i ].node().getId();
+			}
+			this.hashCode = 31 * ( 31 * ( int ) ( this.target ^
+				( this.target >>> 32 ) ) + System.identityHashCode( finder ) ) +
+				Arrays.hashCode( this.classes );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return this.hashCode;
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( !( o instanceof Key ) )
+			{
+				return false;
+			}
+			Key other = ( Key ) o;
+			return this.target == other.target && this.finder == other.finder &&
+				Arrays.equals( this.classes, other.classes );
+		}
+	}
+}
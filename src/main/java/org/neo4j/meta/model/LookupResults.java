@@ -0,0 +1,100 @@
+package org.neo4j.meta.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The result of a batch lookup, see
+ * {@link MetaModel#lookupAll(java.util.Collection, PropertyLookerUpper[],
+ * MetaModelClass...)}. It's a matrix of looked up values with one row per
+ * property (or relationship type) and one column per finder.
+ */
+public class LookupResults
+{
+	private final Map<MetaModelObject, Integer> rows =
+		new HashMap<MetaModelObject, Integer>();
+	private final Object[] finders;
+	private final Object[][] values;
+	
+	LookupResults( MetaModelObject[] rows, Object[] finders, Object[][] values )
+	{
+		for ( int i = 0; i < rows.length; i++ )
+		{
+			this.rows.put( rows[ i ], i );
+		}
+		this.finders = finders;
+		this.values = values;
+	}
+	
+	/**
+	 * @return the number of rows, i.e. properties or relationship types.
+	 */
+	public int rowCount()
+	{
+		return this.values.length;
+	}
+	
+	/**
+	 * @return the number of columns, i.e. finders.
+	 */
+	public int columnCount()
+	{
+		return this.finders.length;
+	}
+	
+	/**
+	 * @param row the index of the property (or relationship type) in the
+	 * order they were given to the lookup.
+	 * @param column the index of the finder.
+	 * @return the found value or {@code null} if no value was found.
+	 */
+	public Object get( int row, int column )
+	{
+		return this.values[ row ][ column ];
+	}
+	
+	/**
+	 * @param <T> the type of the returned value.
+	 * @param property the property to get the value for.
+	 * @param finder the finder which was used in the lookup.
+	 * @return the found value or {@code null} if no value was found.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public <T> T get( MetaModelProperty property,
+		PropertyLookerUpper<T> finder )
+	{
+		return ( T ) get( ( MetaModelObject ) property, finder );
+	}
+	
+	/**
+	 * @param <T> the type of the returned value.
+	 * @param relationshipType the relationship type to get the value for.
+	 * @param finder the finder which was used in the lookup.
+	 * @return the found value or {@code null} if no value was found.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public <T> T get( MetaModelRelationship relationshipType,
+		RelationshipLookerUpper<T> finder )
+	{
+		return ( T ) get( ( MetaModelObject ) relationshipType, finder );
+	}
+	
+	private Object get( MetaModelObject rowKey, Object finder )
+	{
+		Integer row = this.rows.get( rowKey );
+		if ( row == null )
+		{
+			throw new IllegalArgumentException( rowKey +
+				" wasn't part of the lookup" );
+		}
+		for ( int column = 0; column < this.finders.length; column++ )
+		{
+			if ( this.finders[ column ] == finder )
+			{
+				return this.values[ row ][ column ];
+			}
+		}
+		throw new IllegalArgumentException( finder +
+			" wasn't part of the lookup" );
+	}
+}
@@ -47,14 +47,9 @@ abstract class LookupUtil
 	private static <T> T tryLookupFromProperty(
 		MetaModelProperty property, PropertyLookerUpper<T> finder )
 	{
-		T value = finder.get( property );
-		if ( value != null )
+		for ( MetaModelProperty superProperty : property.linearization() )
 		{
-			return value;
-		}
-		for ( MetaModelProperty superProperty : property.getDirectSupers() )
-		{
-			value = tryLookupFromProperty( superProperty, finder );
+			T value = finder.get( superProperty );
 			if ( value != null )
 			{
 				return value;
@@ -66,14 +61,10 @@ abstract class LookupUtil
 	private static <T> T tryLookupFromRelationshipType(
 			MetaModelRelationship relationshipType, RelationshipLookerUpper<T> finder )
 	{
-		T value = finder.get( relationshipType );
-		if ( value != null )
+		for ( MetaModelRelationship superRelationshipType :
+			relationshipType.linearization() )
 		{
-			return value;
-		}
-		for ( MetaModelRelationship superRelationshipType : relationshipType.getDirectSupers() )
-		{
-			value = tryLookupFromRelationshipType( superRelationshipType, finder );
+			T value = finder.get( superRelationshipType );
 			if ( value != null )
 			{
 				return value;
@@ -86,9 +77,8 @@ abstract class LookupUtil
 		MetaModelProperty property, PropertyLookerUpper<T> finder,
 		MetaModelClass cls )
 	{
-		MetaModelPropertyRestriction restriction = cls.getRestriction( property,
-			false );
-		if ( restriction != null )
+		for ( MetaModelPropertyRestriction restriction :
+			cls.effectiveRestrictions().restrictionsFor( property ) )
 		{
 			T value = finder.get( restriction );
 			if ( value != null )
@@ -96,16 +86,6 @@ abstract class LookupUtil
 				return value;
 			}
 		}
-		
-		for ( MetaModelClass superClass : cls.getDirectSupers() )
-		{
-			T value =
-				tryLookupFromPropertyRestrictions( property, finder, superClass );
-			if ( value != null )
-			{
-				return value;
-			}
-		}
 		return null;
 	}
 	
@@ -113,10 +93,8 @@ abstract class LookupUtil
 			MetaModelRelationship relationshipType, RelationshipLookerUpper<T> finder,
 			MetaModelClass cls )
 	{
-		
-		MetaModelRelationshipRestriction restriction = cls.getRestriction( relationshipType,
-			false );
-		if ( restriction != null )
+		for ( MetaModelRelationshipRestriction restriction :
+			cls.effectiveRestrictions().restrictionsFor( relationshipType ) )
 		{
 			T value = finder.get( restriction );
 			if ( value != null )
@@ -124,16 +102,6 @@ abstract class LookupUtil
 				return value;
 			}
 		}
-		
-		for ( MetaModelClass superClass : cls.getDirectSupers() )
-		{
-			T value =
-				tryLookupFromRelationshipTypeRestrictions( relationshipType, finder, superClass );
-			if ( value != null )
-			{
-				return value;
-			}
-		}
 		return null;
 	}
 
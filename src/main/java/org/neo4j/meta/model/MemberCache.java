@@ -0,0 +1,201 @@
+package org.neo4j.meta.model;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.ReturnableEvaluator;
+import org.neo4j.graphdb.TraversalPosition;
+
+/**
+ * Caches the effective members of classes and relationship types, f.ex.
+ * {@link MetaModelPropertyContainer#getAllProperties()}, as
+ * {@link MemberSet}s. Each entry remembers which nodes its traversal
+ * visited (see {@link Footprint}) and is only discarded when a structure
+ * relationship of one of those nodes is created or deleted, see
+ * {@link #changed(Collection)}. Changes elsewhere in the meta model don't
+ * affect it. The nodes an entry depends on are forgotten when the entry is
+ * evicted, so that they're bounded by the size of the cache too.
+ *
+ * A transaction with pending meta model changes neither reads nor writes
+ * the cache, see {@link PendingChanges}.
+ */
+class MemberCache
+{
+	static final int ALL_PROPERTIES = 0;
+	static final int ALL_RELATIONSHIPS = 1;
+	static final int ALL_PROPERTY_RESTRICTIONS = 2;
+	static final int ALL_RELATIONSHIP_RESTRICTIONS = 3;
+	private static final int KINDS = 4;
+
+	private final BoundedCache<Long, MemberSet<?>> entries;
+	private final PendingChanges pending;
+	// From the id of a node to the keys of the entries depending on it, and
+	// the other way around. Guarded by this.
+	private final Map<Long, Set<Long>> dependents =
+		new HashMap<Long, Set<Long>>();
+	private final Map<Long, Set<Long>> footprints =
+		new HashMap<Long, Set<Long>>();
+	private volatile long version;
+
+	MemberCache( int maxSize, PendingChanges pending )
+	{
+		this.entries = new BoundedCache<Long, MemberSet<?>>( "members",
+			maxSize )
+		{
+			@Override
+			protected void evicted( Long key, MemberSet<?> value )
+			{
+				forget( key );
+			}
+		};
+		this.pending = pending;
+	}
+
+	private static Long key( long nodeId, int kind )
+	{
+		return nodeId * KINDS + kind;
+	}
+
+	/**
+	 * @return the cached members of kind {@code kind} of the object with
+	 * node id {@code nodeId}, or {@code null}.
+	 */
+	@SuppressWarnings( "unchecked" )
+	<T> MemberSet<T> get( long nodeId, int kind )
+	{
+		if ( this.pending.schema() )
+		{
+			return null;
+		}
+		return ( MemberSet<T> ) this.entries.get( key( nodeId, kind ) );
+	}
+
+	/**
+	 * @return the current version, to be passed to
+	 * {@link #put(long, int, Collection, Footprint, long)} when the members
+	 * have been computed.
+	 */
+	long version()
+	{
+		return this.version;
+	}
+
+	/**
+	 * Caches {@code members}, unless something has changed since
+	 * {@code versionWhenComputed} so that they might be stale, or the
+	 * current transaction has pending changes so that they might be
+	 * rolled back.
+	 * @return the members as a {@link MemberSet}.
+	 */
+	synchronized <T> MemberSet<T> put( long nodeId, int kind,
+		Collection<T> members, Footprint footprint, long versionWhenComputed )
+	{
+		MemberSet<T> result = new MemberSet<T>( members );
+		if ( versionWhenComputed != this.version || this.pending.schema() )
+		{
+			return result;
+		}
+		Long key = key( nodeId, kind );
+		forget( key );
+		this.footprints.put( key, footprint.nodes );
+		for ( Long visited : footprint.nodes )
+		{
+			Set<Long> keys = this.dependents.get( visited );
+			if ( keys == null )
+			{
+				keys = new HashSet<Long>();
+				this.dependents.put( visited, keys );
+			}
+			keys.add( key );
+		}
+		this.entries.put( key, result );
+		return result;
+	}
+
+	/**
+	 * Discards the entries whose traversals visited any of the given nodes.
+	 * @param nodeIds the ids of nodes which had structure relationships
+	 * created or deleted, or were deleted.
+	 */
+	synchronized void changed( Collection<Long> nodeIds )
+	{
+		if ( nodeIds.isEmpty() )
+		{
+			return;
+		}
+		this.version++;
+		for ( Long nodeId : nodeIds )
+		{
+			Set<Long> keys = this.dependents.remove( nodeId );
+			if ( keys != null )
+			{
+				for ( Long key : keys )
+				{
+					this.entries.remove( key );
+					forget( key );
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the key of an entry from the dependents of the nodes it
+	 * depends on.
+	 */
+	private synchronized void forget( Long key )
+	{
+		Set<Long> nodeIds = this.footprints.remove( key );
+		if ( nodeIds == null )
+		{
+			return;
+		}
+		for ( Long nodeId : nodeIds )
+		{
+			Set<Long> keys = this.dependents.get( nodeId );
+			if ( keys != null )
+			{
+				keys.remove( key );
+				if ( keys.isEmpty() )
+				{
+					this.dependents.remove( nodeId );
+				}
+			}
+		}
+	}
+
+	synchronized void clear()
+	{
+		this.version++;
+		this.dependents.clear();
+		this.footprints.clear();
+		this.entries.clear();
+	}
+
+	CacheStatistics statistics()
+	{
+		return this.entries.statistics();
+	}
+
+	/**
+	 * Records every node a traversal visits, whether returned or not.
+	 */
+	static class Footprint implements ReturnableEvaluator
+	{
+		private final ReturnableEvaluator evaluator;
+		private final Set<Long> nodes = new HashSet<Long>();
+
+		Footprint( ReturnableEvaluator evaluator )
+		{
+			this.evaluator = evaluator;
+		}
+
+		public boolean isReturnableNode( TraversalPosition currentPos )
+		{
+			this.nodes.add( currentPos.currentNode().getId() );
+			return this.evaluator.isReturnableNode( currentPos );
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.neo4j.meta.model;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable set backed by an array, used for the cached results of f.ex.
+ * {@link MetaModelPropertyContainer#getAllProperties()}. Iterating is an
+ * array walk, {@link #contains(Object)} is a scan for small sets and a hash
+ * lookup (in a lazily built hash set) for larger ones.
+ * @param <T> the type of members.
+ */
+class MemberSet<T> extends AbstractSet<T>
+{
+	private static final int MAX_SCANNED_SIZE = 8;
+
+	private final Object[] items;
+	private volatile Set<Object> hashed;
+
+	/**
+	 * @param items the members, without duplicates.
+	 */
+	MemberSet( Collection<? extends T> items )
+	{
+		this.items = items.toArray();
+	}
+
+	@Override
+	public int size()
+	{
+		return this.items.length;
+	}
+
+	@Override
+	public boolean contains( Object o )
+	{
+		if ( this.items.length <= MAX_SCANNED_SIZE )
+		{
+			for ( Object item : this.items )
+			{
+				if ( item.equals( o ) )
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		Set<Object> set = this.hashed;
+		if ( set == null )
+		{
+			set = new HashSet<Object>( Arrays.asList( this.items ) );
+			this.hashed = set;
+		}
+		return set.contains( o );
+	}
+
+	@Override
+	public Iterator<T> iterator()
+	{
+		return new Iterator<T>()
+		{
+			private int next;
+
+			public boolean hasNext()
+			{
+				return this.next < items.length;
+			}
+
+			@SuppressWarnings( "unchecked" )
+			public T next()
+			{
+				if ( !hasNext() )
+				{
+					throw new NoSuchElementException();
+				}
+				return ( T ) items[ this.next++ ];
+			}
+
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -19,7 +19,7 @@ public interface MetaModel
 	 * @return the {@link MetaModelNamespace} in this namespace with the
 	 * given {@code name}.
 	 */
-	MetaModelNamespace getNamespace( String name, boolean allowCreate ) throws DuplicateNameException;
+	MetaModelNamespace getNamespace( String name, boolean allowCreate );
 
 	/**
 	 * @return the global namespace (without a name) which always exists.
@@ -51,6 +51,87 @@ public interface MetaModel
 	<T> T lookup( MetaModelRelationship relationshipType, RelationshipLookerUpper<T> finder,
 		MetaModelClass... classes );
 
+	/**
+	 * Looks up several values for several properties in one go, which is
+	 * much cheaper than calling
+	 * {@link #lookup(MetaModelProperty, PropertyLookerUpper, MetaModelClass...)}
+	 * once for each combination, f.ex. when validating an instance.
+	 * @param properties the properties to get values from.
+	 * @param finders the value finders, f.ex. minimum cardinality.
+	 * @param classes the classes to look in.
+	 * @return the found values, one row per property and one column per
+	 * finder.
+	 */
+	LookupResults lookupAll( Collection<MetaModelProperty> properties,
+		PropertyLookerUpper<?>[] finders, MetaModelClass... classes );
+
+	/**
+	 * Looks up several values for several relationship types in one go,
+	 * see {@link #lookupAll(Collection, PropertyLookerUpper[], MetaModelClass...)}.
+	 * @param relationshipTypes the relationship types to get values from.
+	 * @param finders the value finders, f.ex. minimum cardinality.
+	 * @param classes the classes to look in.
+	 * @return the found values, one row per relationship type and one
+	 * column per finder.
+	 */
+	LookupResults lookupAll( Collection<MetaModelRelationship> relationshipTypes,
+		RelationshipLookerUpper<?>[] finders, MetaModelClass... classes );
+
+	/**
+	 * Returned from the int cardinality lookups, f.ex.
+	 * {@link #lookupMinCardinality(MetaModelProperty, MetaModelClass...)},
+	 * when no cardinality is set.
+	 */
+	public static final int CARDINALITY_UNSET = -1;
+
+	/**
+	 * Looks up the min cardinality of a property, just like
+	 * {@link #lookup(MetaModelProperty, PropertyLookerUpper, MetaModelClass...)}
+	 * with {@link #LOOKUP_PROPERTY_MIN_CARDINALITY}, but without creating
+	 * any objects once the classes and the property have been resolved.
+	 * Intended for validation of many values, where the {@code classes}
+	 * array preferably is reused between calls.
+	 * @param property the property to get the cardinality for.
+	 * @param classes the classes to look in.
+	 * @return the min cardinality or {@link #CARDINALITY_UNSET} if none
+	 * is set.
+	 */
+	int lookupMinCardinality( MetaModelProperty property,
+		MetaModelClass... classes );
+
+	/**
+	 * Looks up the max cardinality of a property, see
+	 * {@link #lookupMinCardinality(MetaModelProperty, MetaModelClass...)}.
+	 * @param property the property to get the cardinality for.
+	 * @param classes the classes to look in.
+	 * @return the max cardinality or {@link #CARDINALITY_UNSET} if none
+	 * is set.
+	 */
+	int lookupMaxCardinality( MetaModelProperty property,
+		MetaModelClass... classes );
+
+	/**
+	 * Looks up the min cardinality of a relationship type, see
+	 * {@link #lookupMinCardinality(MetaModelProperty, MetaModelClass...)}.
+	 * @param relationshipType the relationship type to get the cardinality for.
+	 * @param classes the classes to look in.
+	 * @return the min cardinality or {@link #CARDINALITY_UNSET} if none
+	 * is set.
+	 */
+	int lookupMinCardinality( MetaModelRelationship relationshipType,
+		MetaModelClass... classes );
+
+	/**
+	 * Looks up the max cardinality of a relationship type, see
+	 * {@link #lookupMinCardinality(MetaModelProperty, MetaModelClass...)}.
+	 * @param relationshipType the relationship type to get the cardinality for.
+	 * @param classes the classes to look in.
+	 * @return the max cardinality or {@link #CARDINALITY_UNSET} if none
+	 * is set.
+	 */
+	int lookupMaxCardinality( MetaModelRelationship relationshipType,
+		MetaModelClass... classes );
+
 	/**
 	 * Looks up the min cardinality property.
 	 */
@@ -1,8 +1,9 @@
 package org.neo4j.meta.model;
 
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
@@ -55,6 +56,72 @@ public class MetaModelClass extends MetaModelPropertyContainer implements MetaMo
 		return MetaModelRelTypes.META_IS_SUBCLASS_OF;
 	}
 	
+	@Override
+	MetaModelClass[] linearization()
+	{
+		return ( MetaModelClass[] ) super.linearization();
+	}
+	
+	/**
+	 * @param others other classes.
+	 * @return an unmodifiable collection of the classes which this
+	 * class and all of {@code others} are, or are (recursive) subclasses of.
+	 */
+	public Collection<MetaModelClass> getCommonSupers( MetaModelClass... others )
+	{
+		return commonSupers( MetaModelClass.class, false, others );
+	}
+	
+	/**
+	 * @param others other classes.
+	 * @return an unmodifiable collection of the most specific of the
+	 * {@link #getCommonSupers(MetaModelClass...)}, i.e. the ones which
+	 * aren't supers of any other common super. With multiple inheritance
+	 * there may be more than one.
+	 */
+	public Collection<MetaModelClass> getLeastCommonSupers(
+		MetaModelClass... others )
+	{
+		return commonSupers( MetaModelClass.class, true, others );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelClass>> getAllSupers(
+		int maxDepth )
+	{
+		return allSupers( MetaModelClass.class, maxDepth );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelClass>> getAllSupers()
+	{
+		return getAllSupers( Integer.MAX_VALUE );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelClass>> getAllSubs(
+		int maxDepth )
+	{
+		return allSubs( MetaModelClass.class, maxDepth );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelClass>> getAllSubs()
+	{
+		return getAllSubs( Integer.MAX_VALUE );
+	}
+	
+	/**
+	 * @return this class followed by all its (recursive) super classes,
+	 * each one only once, in C3 linearization order, i.e. a class always
+	 * comes before its super classes and the order of direct super classes
+	 * is kept. This is the order in which restrictions are resolved.
+	 */
+	public MetaModelClass[] getLinearization()
+	{
+		return linearization().clone();
+	}
+	
 	/**
 	 * @return a modifiable collection of RelationshipTypes directly related to
 	 * this class.
@@ -72,16 +139,25 @@ public class MetaModelClass extends MetaModelPropertyContainer implements MetaMo
 	 */
 	public Collection<MetaModelRelationship> getAllRelationships()
 	{
+		MemberSet<MetaModelRelationship> cached = members().get(
+			node().getId(), MemberCache.ALL_RELATIONSHIPS );
+		if ( cached != null )
+		{
+			return cached;
+		}
+		long version = members().version();
 		Transaction tx = graphDb().beginTx();
 		try
 		{
-			HashSet<MetaModelRelationship> relationshipTypes =
-				new HashSet<MetaModelRelationship>();
+			Set<MetaModelRelationship> relationshipTypes =
+				new LinkedHashSet<MetaModelRelationship>();
+			MemberCache.Footprint footprint =
+				new MemberCache.Footprint( new AllRelationshipTypesRE() );
 			for ( Node node : node().traverse( Traverser.Order.BREADTH_FIRST,
 				StopEvaluator.END_OF_GRAPH,
 				
 				// Maybe remove these three lines? They go for subrelationships too
-				new AllRelationshipTypesRE(),
+				footprint,
 				MetaModelRelTypes.META_IS_SUBRELATIONSHIP_OF,
 					Direction.INCOMING,
 					
@@ -90,9 +166,11 @@ public class MetaModelClass extends MetaModelPropertyContainer implements MetaMo
 				MetaModelRelTypes.META_IS_SUBCLASS_OF,
 					Direction.OUTGOING ) )
 			{
-				relationshipTypes.add( new MetaModelRelationship( model(), node ) );
+				relationshipTypes.add( wrap( MetaModelRelationship.class, node ) );
 			}
-			return Collections.unmodifiableSet( relationshipTypes );
+			return members().put( node().getId(),
+				MemberCache.ALL_RELATIONSHIPS, relationshipTypes, footprint,
+				version );
 		}
 		finally
 		{
@@ -114,14 +192,11 @@ public class MetaModelClass extends MetaModelPropertyContainer implements MetaMo
 		Transaction tx = graphDb().beginTx();
 		try
 		{
-			Collection<MetaModelRelationshipRestriction> restrictions =
-				getDirectRelationshipRestrictions();
-			for ( MetaModelRelationshipRestriction restriction : restrictions )
+			Node existing = restrictionIndex().get( node(),
+				relationshipType.node() );
+			if ( existing != null )
 			{
-				if ( restriction.getMetaRelationshipType().equals( relationshipType ) )
-				{
-					return restriction;
-				}
+				return wrap( MetaModelRelationshipRestriction.class, existing );
 			}
 			if ( !allowCreate )
 			{
@@ -129,11 +204,14 @@ public class MetaModelClass extends MetaModelPropertyContainer implements MetaMo
 			}
 			
 			Node node = graphDb().createNode();
-			MetaModelRelationshipRestriction result = new MetaModelRelationshipRestriction(
-				model(), node );
-			restrictions.add( result );
+			MetaModelRelationshipRestriction result = wrap(
+				MetaModelRelationshipRestriction.class, node );
+			getDirectRelationshipRestrictions().add( result );
 			node.createRelationshipTo( relationshipType.node(),
 				MetaModelRelTypes.META_RESTRICTION_TO_RELATIONSHIP );
+			schemaChanged();
+			restrictionIndex().created( node(), relationshipType.node(),
+				node );
 			tx.success();
 			return result;
 		}
@@ -165,24 +243,35 @@ public class MetaModelClass extends MetaModelPropertyContainer implements MetaMo
 	 */
 	public Collection<MetaModelRelationshipRestriction> getAllRelationshipRestrictions()
 	{
+		MemberSet<MetaModelRelationshipRestriction> cached = members().get(
+			node().getId(), MemberCache.ALL_RELATIONSHIP_RESTRICTIONS );
+		if ( cached != null )
+		{
+			return cached;
+		}
+		long version = members().version();
 		Transaction tx = graphDb().beginTx();
 		try
 		{
-			HashSet<MetaModelRelationshipRestriction> restrictions =
-				new HashSet<MetaModelRelationshipRestriction>();
+			Set<MetaModelRelationshipRestriction> restrictions =
+				new LinkedHashSet<MetaModelRelationshipRestriction>();
+			MemberCache.Footprint footprint = new MemberCache.Footprint(
+				new OneOfRelTypesReturnableEvaluator(
+					MetaModelRelTypes.META_RELATIONSHIP_RESTRICTION_TO_CLASS ) );
 			for ( Node node : node().traverse( Traverser.Order.BREADTH_FIRST,
 				StopEvaluator.END_OF_GRAPH,
-				new OneOfRelTypesReturnableEvaluator(
-					MetaModelRelTypes.META_RELATIONSHIP_RESTRICTION_TO_CLASS ),
+				footprint,
 				MetaModelRelTypes.META_RELATIONSHIP_RESTRICTION_TO_CLASS,
 					Direction.INCOMING,
 				MetaModelRelTypes.META_IS_SUBCLASS_OF,
 					Direction.OUTGOING ) )
 			{
 				restrictions.add(
-					new MetaModelRelationshipRestriction( model(), node ) );
+					wrap( MetaModelRelationshipRestriction.class, node ) );
 			}
-			return Collections.unmodifiableSet( restrictions );
+			return members().put( node().getId(),
+				MemberCache.ALL_RELATIONSHIP_RESTRICTIONS, restrictions,
+				footprint, version );
 		}
 		finally
 		{
@@ -191,6 +280,56 @@ public class MetaModelClass extends MetaModelPropertyContainer implements MetaMo
 	}
 	
 	
+	/**
+	 * @return an unmodifiable map of every property which this class, or
+	 * any of its super classes, has a restriction on, to the nearest such
+	 * restriction in the class hierarchy.
+	 */
+	public Map<MetaModelProperty, MetaModelPropertyRestriction>
+		getEffectivePropertyRestrictions()
+	{
+		return effectiveRestrictions().nearestPropertyRestrictions();
+	}
+	
+	/**
+	 * @return an unmodifiable map of every relationship type which this
+	 * class, or any of its super classes, has a restriction on, to the
+	 * nearest such restriction in the class hierarchy.
+	 */
+	public Map<MetaModelRelationship, MetaModelRelationshipRestriction>
+		getEffectiveRelationshipRestrictions()
+	{
+		return effectiveRestrictions().nearestRelationshipRestrictions();
+	}
+	
+	/**
+	 * @param property the {@link MetaModelProperty} to get the restriction for.
+	 * @return the restriction on {@code property} from this class or the
+	 * nearest super class which has one, or {@code null} if there's none.
+	 */
+	public MetaModelPropertyRestriction getEffectiveRestriction(
+		MetaModelProperty property )
+	{
+		return getEffectivePropertyRestrictions().get( property );
+	}
+	
+	/**
+	 * @param relationshipType the {@link MetaModelRelationship} to get the
+	 * restriction for.
+	 * @return the restriction on {@code relationshipType} from this class or
+	 * the nearest super class which has one, or {@code null} if there's none.
+	 */
+	public MetaModelRelationshipRestriction getEffectiveRestriction(
+		MetaModelRelationship relationshipType )
+	{
+		return getEffectiveRelationshipRestrictions().get( relationshipType );
+	}
+	
+	EffectiveRestrictions effectiveRestrictions()
+	{
+		return ( ( MetaModelImpl ) model() ).effectiveRestrictions( this );
+	}
+	
 	/**
 	 * @return a modifiable collection of instances of this class.
 	 */
@@ -206,6 +345,31 @@ public class MetaModelClass extends MetaModelPropertyContainer implements MetaMo
 	{
 	    return new RecursiveInstanceTraverser( graphDb(), node(), model() );
 	}
+	
+	/**
+	 * Checks if {@code node} is an instance of this class or of one of its
+	 * (recursive) subclasses. The classes of {@code node} are cached as a
+	 * sorted array of ids (a type code) so that this is a binary search, see
+	 * {@link MetaModelImpl#setPersistentTypeCodes(boolean)}.
+	 * @param node the node to check.
+	 * @return {@code true} if {@code node} is an instance of this class,
+	 * directly or through a subclass.
+	 */
+	public boolean isInstance( Node node )
+	{
+		Transaction tx = graphDb().beginTx();
+		try
+		{
+			boolean result = ( ( MetaModelImpl ) model() ).typeCodes().
+				isInstance( node, node() );
+			tx.success();
+			return result;
+		}
+		finally
+		{
+			tx.finish();
+		}
+	}
 
 	public void setMinCardinality( Integer cardinalityOrNull )
 	{
@@ -1,14 +1,22 @@
 package org.neo4j.meta.model;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.index.IndexService;
 import org.neo4j.util.GraphDatabaseUtil;
@@ -19,22 +27,90 @@ import org.neo4j.util.GraphDatabaseUtil;
  */
 public class MetaModelImpl implements MetaModel
 {
+	/**
+	 * Written and removed to take a Neo4j lock on a node, see
+	 * {@link #lock(Node)}.
+	 */
+	static final String KEY_LOCK = "meta_model_lock";
+	
 	private GraphDatabaseService graphDb;
 	private GraphDatabaseUtil graphDbUtil;
 	private IndexService indexService;
 	
-	private Map<String, MetaModelNamespace> namespaceCache =
-		Collections.synchronizedMap(
-			new HashMap<String, MetaModelNamespace>() );
+	private final BoundedCache<String, MetaModelObject> nameCache;
+	private final SchemaEpoch schemaEpoch = new SchemaEpoch();
+	private final PendingChanges pendingChanges = new PendingChanges();
+	private final LookupCache lookupCache;
+	private final SchemaCache<MetaModelClass, EffectiveRestrictions>
+		restrictionTables;
+	private final SchemaCache<MetaModelThing, MetaModelThing[]> linearizations;
+	private final SchemaCache<MetaModelThing, int[]> cardinalities;
+	private final MemberCache members;
+	private final TypeCodes typeCodes;
+	// The indexes are only changed by committed transactions, and from the
+	// graph if hierarchyVersion hasn't changed since it was read, both while
+	// holding the lock of the map, see hierarchy(RelationshipType) and
+	// include(RelationshipType, HierarchyIndex, Node).
+	private final Map<String, HierarchyIndex> hierarchies =
+		new ConcurrentHashMap<String, HierarchyIndex>();
+	private final AtomicLong hierarchyVersion = new AtomicLong();
+	// The number of transactions changing a hierarchy which have started
+	// to commit, and of those which have been applied to the indexes (or
+	// rolled back), see checkHierarchyAdd.
+	private final AtomicLong hierarchyCommits = new AtomicLong();
+	private final AtomicLong hierarchyApplied = new AtomicLong();
+	private final RestrictionIndex restrictionIndex =
+		new RestrictionIndex( pendingChanges );
+	private final NameIndex nameIndex = new NameIndex( this );
+	private final ObjectInterner interner = new ObjectInterner( this );
+	private final MetaModelTransactionEventHandler eventHandler;
 	
 	/**
 	 * @param graphDB the {@link GraphDatabaseService} used for this meta model.
 	 */
 	public MetaModelImpl( GraphDatabaseService graphDB, IndexService indexService )
 	{
+		this( graphDB, indexService, BoundedCache.DEFAULT_MAX_SIZE );
+	}
+	
+	/**
+	 * @param graphDB the {@link GraphDatabaseService} used for this meta model.
+	 * @param maxCacheSize the max number of entries of each of the caches,
+	 * f.ex. of the lookup cache and of the cache of named objects, which is
+	 * shared by all namespaces.
+	 */
+	public MetaModelImpl( GraphDatabaseService graphDB,
+		IndexService indexService, int maxCacheSize )
+	{
+		this.nameCache = new BoundedCache<String, MetaModelObject>(
+			"names", maxCacheSize );
+		this.lookupCache = new LookupCache( maxCacheSize, schemaEpoch,
+			pendingChanges );
+		this.restrictionTables = new SchemaCache<MetaModelClass,
+			EffectiveRestrictions>( "restrictions", maxCacheSize, schemaEpoch,
+			pendingChanges );
+		this.linearizations = new SchemaCache<MetaModelThing,
+			MetaModelThing[]>( "linearizations", maxCacheSize, schemaEpoch,
+			pendingChanges );
+		this.cardinalities = new SchemaCache<MetaModelThing, int[]>(
+			"cardinalities", maxCacheSize, schemaEpoch, pendingChanges );
+		this.members = new MemberCache( maxCacheSize, pendingChanges );
+		this.typeCodes = new TypeCodes( this, maxCacheSize );
 		this.graphDb = graphDB;
 		this.graphDbUtil = new GraphDatabaseUtil( graphDB );
 		this.indexService = indexService;
+		this.eventHandler = new MetaModelTransactionEventHandler( this );
+		graphDB.registerTransactionEventHandler( this.eventHandler );
+	}
+	
+	/**
+	 * Stops listening for changes in the graph. The caches of this meta
+	 * model won't be kept up to date with changes made by other meta model
+	 * instances after this call, so it shouldn't be used anymore.
+	 */
+	public void shutdown()
+	{
+		graphDb().unregisterTransactionEventHandler( this.eventHandler );
 	}
 	
 	/**
@@ -58,6 +134,159 @@ public class MetaModelImpl implements MetaModel
 		return this.graphDbUtil;
 	}
 	
+	RestrictionIndex restrictionIndex()
+	{
+		return this.restrictionIndex;
+	}
+	
+	NameIndex nameIndex()
+	{
+		return this.nameIndex;
+	}
+	
+	MemberCache members()
+	{
+		return this.members;
+	}
+	
+	TypeCodes typeCodes()
+	{
+		return this.typeCodes;
+	}
+	
+	/**
+	 * Sets whether or not the type codes of instances, see
+	 * {@link MetaModelClass#isInstance(Node)}, are stored in the graph so
+	 * that they survive restarts. They're only cached in memory by default.
+	 * Stored codes are written when a transaction which adds an instance to
+	 * or removes it from a class is committed, checks only read them.
+	 * @param persistent whether or not to store the type codes.
+	 */
+	public void setPersistentTypeCodes( boolean persistent )
+	{
+		typeCodes.setPersistent( persistent );
+	}
+	
+	/**
+	 * Called when a structure relationship has been created or deleted
+	 * through this meta model, so that the cached members which depend on
+	 * it are discarded. The transaction event handler does the same on
+	 * commit (or rollback), but isn't told about changes within a
+	 * transaction.
+	 * @param startId the id of the start node of the relationship.
+	 * @param endId the id of the end node of the relationship.
+	 */
+	void relationshipChanged( long startId, long endId )
+	{
+		members.changed( Arrays.asList( startId, endId ) );
+	}
+	
+	/**
+	 * @param type the type of the wrapper.
+	 * @param node the node to wrap.
+	 * @return the canonical {@link MetaModelObject} of type {@code type}
+	 * wrapping {@code node}.
+	 */
+	<T extends MetaModelObject> T wrap( Class<T> type, Node node )
+	{
+		return interner.intern( type, node );
+	}
+	
+	/**
+	 * @return the statistics of the caches of this meta model. The caches
+	 * of the same kind of objects in different namespaces are combined.
+	 */
+	public Collection<CacheStatistics> getCacheStatistics()
+	{
+		Map<String, CacheStatistics> result =
+			new LinkedHashMap<String, CacheStatistics>();
+		add( result, nameCache.statistics() );
+		add( result, lookupCache.statistics() );
+		add( result, restrictionTables.statistics() );
+		add( result, linearizations.statistics() );
+		add( result, cardinalities.statistics() );
+		add( result, members.statistics() );
+		add( result, typeCodes.statistics() );
+		return result.values();
+	}
+	
+	private static void add( Map<String, CacheStatistics> result,
+		CacheStatistics statistics )
+	{
+		CacheStatistics existing = result.get( statistics.getName() );
+		result.put( statistics.getName(), existing == null ? statistics :
+			existing.plus( statistics ) );
+	}
+	
+	/**
+	 * @return the cache of the namespaces and of the classes, properties and
+	 * relationship types of all namespaces, keyed by their qualified names
+	 * (see {@link NameIndex#key(Node, RelationshipType, String)}). It's
+	 * shared by all namespaces so that the number of cached objects is
+	 * bounded no matter how many namespaces there are.
+	 */
+	BoundedCache<String, MetaModelObject> nameCache()
+	{
+		return this.nameCache;
+	}
+	
+	/**
+	 * Drops the canonical wrappers of nodes which have been deleted.
+	 * @param nodeIds the ids of the deleted nodes.
+	 */
+	void deleted( Set<Long> nodeIds )
+	{
+		members.changed( nodeIds );
+		typeCodes.changed( nodeIds );
+		interner.evict( nodeIds );
+		evict( nameCache, nodeIds );
+	}
+	
+	/**
+	 * Indexes the namespaces, classes, properties and relationship types
+	 * by their namespace qualified names. Stores created by earlier versions
+	 * must be backfilled once for lookups by name to be done without
+	 * scanning. Can be run again if interrupted.
+	 * @param batchSize the max number of objects to index per transaction.
+	 * @return the number of objects which were indexed.
+	 */
+	public int backfillQualifiedNames( int batchSize )
+	{
+		return nameIndex.backfill( batchSize );
+	}
+	
+	/**
+	 * Completes the removals which were interrupted, f.ex. by a crash, see
+	 * {@link MetaModelNamespace#removeCascading(String, int, RemovalListener)}.
+	 * @param batchSize the max number of deletions per transaction.
+	 * @param listenerOrNull receives the progress of the removals, or
+	 * {@code null}.
+	 * @return the number of removals which were completed.
+	 */
+	public int resumeRemovals( int batchSize, RemovalListener listenerOrNull )
+	{
+		List<Node> pending = new ArrayList<Node>();
+		Transaction tx = graphDb().beginTx();
+		try
+		{
+			for ( Node node : indexService().getNodes(
+				CascadeRemover.KEY_REMOVING, true ) )
+			{
+				pending.add( node );
+			}
+			tx.success();
+		}
+		finally
+		{
+			tx.finish();
+		}
+		for ( Node node : pending )
+		{
+			new CascadeRemover( this, batchSize, listenerOrNull ).remove( node );
+		}
+		return pending.size();
+	}
+	
 	protected Node rootNode()
 	{
 		return graphDbUtil().getOrCreateSubReferenceNode(
@@ -66,88 +295,492 @@ public class MetaModelImpl implements MetaModel
 	
 	public MetaModelNamespace getNamespace( String name,
 		boolean allowCreate )
-	throws DuplicateNameException
 	{
 		assert name != null;
-		return findOrCreateInCollection( getNamespaces(), name, allowCreate,
-			MetaModelNamespace.class, namespaceCache );
+		return findOrCreateInCollection( namespaces(), name, allowCreate,
+			MetaModelNamespace.class );
 	}
 	
 	public MetaModelNamespace getGlobalNamespace()
 	{
-		MetaModelNamespace ns = null;
-		try{
-			ns = findOrCreateInCollection( getNamespaces(), null, true,
-					MetaModelNamespace.class, namespaceCache );
-		}catch(DuplicateNameException dne){
-			//Do nothing. Global namesepace has no name, so no duplication can occur
-		}
-		return ns;
+		return findOrCreateInCollection( namespaces(), null, true,
+			MetaModelNamespace.class );
 	}
 	
+	/**
+	 * Finds the item with the given name in {@code collection}, or creates
+	 * it. Creations of items in the same container are serialized by a
+	 * Neo4j lock on the container node, held until the creating transaction
+	 * has committed, so that only one of them creates the item and the
+	 * others get that item, also when called within a larger transaction.
+	 * Being a Neo4j lock it's seen by the deadlock detection of Neo4j.
+	 * Lookups of items which exist don't take the lock. Items are cached
+	 * in the {@link #nameCache()}, a created item when its transaction has
+	 * been committed.
+	 */
 	protected <T extends MetaModelObject> T findOrCreateInCollection(
-		Collection<T> collection, String nameOrNullForGlobal,
-		boolean allowCreate, Class<T> theClass, Map<String, T> cacheOrNull )
-	throws DuplicateNameException
+		ObjectCollection<T> collection, String nameOrNullForGlobal,
+		boolean allowCreate, Class<T> theClass )
 	{
+		// No need to check that a cached item still exists, deleted
+		// items are evicted by the MetaModelTransactionEventHandler.
+		String key = NameIndex.key( collection.container(), collection.kind(),
+			nameOrNullForGlobal );
+		T foundItem = theClass.cast( nameCache.get( key ) );
+		if ( foundItem != null )
+		{
+			return foundItem;
+		}
+		
 		Transaction tx = graphDb().beginTx();
 		try
 		{
-			T foundItem = safeGetFromCache( cacheOrNull, nameOrNullForGlobal );
-			if ( foundItem != null )
+			// Most lookups of names which don't exist stop at the filter.
+			if ( nameIndex.mightExist( collection.container(),
+				collection.kind(), nameOrNullForGlobal ) )
 			{
-				tx.success();
-				return foundItem;
+				foundItem = find( collection, nameOrNullForGlobal, theClass );
 			}
-			
-			for ( T item : collection )
+			if ( foundItem == null && allowCreate )
 			{
-				String theName = item.getName();
-				if ( nameOrNullForGlobal == null || theName == null )
+				lock( collection.container() );
+				// Another transaction may have created it while we waited
+				// for the lock, and its name may not be in the filter yet.
+				foundItem = find( collection, nameOrNullForGlobal, theClass );
+				if ( foundItem == null )
 				{
-					if ( nameOrNullForGlobal == null && theName == null )
-					{
-						foundItem = item;
-						break;
-					}
+					foundItem = create( collection, nameOrNullForGlobal,
+						theClass );
+					tx.success();
+					return foundItem;
 				}
-				else if ( theName.equals( nameOrNullForGlobal ) )
+			}
+			if ( foundItem != null && !pendingChanges.schema() )
+			{
+				nameCache.put( key, foundItem );
+			}
+			tx.success();
+			return foundItem;
+		}
+		finally
+		{
+			tx.finish();
+		}
+	}
+	
+	/**
+	 * Takes a write lock on {@code node}, held until the current
+	 * transaction finishes, by writing a property on it.
+	 */
+	static void lock( Node node )
+	{
+		node.setProperty( KEY_LOCK, Boolean.TRUE );
+		node.removeProperty( KEY_LOCK );
+	}
+	
+	private <T extends MetaModelObject> T find(
+		ObjectCollection<T> collection, String nameOrNullForGlobal,
+		Class<T> theClass )
+	{
+		Node foundNode = nameIndex.get( collection.container(),
+			collection.kind(), nameOrNullForGlobal );
+		if ( foundNode != null )
+		{
+			return wrap( theClass, foundNode );
+		}
+		if ( nameIndex.isComplete() )
+		{
+			return null;
+		}
+		// Not indexed here, lookups don't write to the graph. Stores are
+		// indexed by backfillQualifiedNames.
+		return scan( collection, nameOrNullForGlobal );
+	}
+	
+	private <T extends MetaModelObject> T create(
+		ObjectCollection<T> collection, String nameOrNullForGlobal,
+		Class<T> theClass )
+	{
+		Node node = graphDb().createNode();
+		T item = wrap( theClass, node );
+		if ( nameOrNullForGlobal != null )
+		{
+			item.setName( nameOrNullForGlobal );
+		}
+		nameIndex.index( node, collection.container(), collection.kind(),
+			nameOrNullForGlobal );
+		nameIndex.creating( collection.container(), collection.kind() );
+		collection.add( item );
+		return item;
+	}
+	
+	/**
+	 * Finds an item by name the slow way, for stores where the qualified
+	 * names haven't been backfilled.
+	 */
+	private static <T extends MetaModelObject> T scan( Collection<T> collection,
+		String nameOrNullForGlobal )
+	{
+		for ( T item : collection )
+		{
+			String theName = item.getName();
+			if ( nameOrNullForGlobal == null ? theName == null :
+				nameOrNullForGlobal.equals( theName ) )
+			{
+				return item;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Removes the entries for the objects wrapping any of the given nodes.
+	 * @param cache the cache to remove entries from.
+	 * @param nodeIds the ids of the nodes.
+	 */
+	static <T extends MetaModelObject> void evict(
+		BoundedCache<String, T> cache, final Set<Long> nodeIds )
+	{
+		cache.removeIf( new BoundedCache.Filter<T>()
+		{
+			public boolean matches( T item )
+			{
+				return nodeIds.contains( item.node().getId() );
+			}
+		} );
+	}
+	
+	/**
+	 * Called by the {@link MetaModelTransactionEventHandler} when a
+	 * transaction which changed the meta model has been committed.
+	 * @param changes the changes made in the transaction.
+	 */
+	void schemaCommitted( MetaModelTransactionEventHandler.SchemaChanges changes )
+	{
+		typeCodes.finished( changes );
+		if ( changes.onlyInstances() )
+		{
+			return;
+		}
+		transactionFinished( changes );
+		if ( changes.unknown() )
+		{
+			hierarchyInvalidated( null );
+		}
+		else
+		{
+			for ( MetaModelTransactionEventHandler.HierarchyEdge edge :
+				changes.hierarchyEdges() )
+			{
+				if ( !edge.created )
 				{
-					foundItem = item;
-					break;
+					hierarchyRemoved( edge.typeName, edge.subId,
+						edge.superId );
 				}
 			}
-			if ( foundItem != null )
+			for ( MetaModelTransactionEventHandler.HierarchyEdge edge :
+				changes.hierarchyEdges() )
 			{
-				if ( cacheOrNull != null )
+				if ( edge.created )
 				{
-					cacheOrNull.put( nameOrNullForGlobal, foundItem );
+					hierarchyAdded( edge.typeName, edge.subId, edge.superId );
 				}
-				return foundItem;
 			}
-			
-			if ( !allowCreate )
+		}
+		if ( changes.hierarchyChanged() )
+		{
+			hierarchyApplied.incrementAndGet();
+		}
+		for ( Node[] created : changes.createdRestrictions() )
+		{
+			restrictionIndex.committed( created[ 0 ], created[ 1 ] );
+		}
+		for ( MetaModelTransactionEventHandler.Name name : changes.names() )
+		{
+			nameIndex.added( name.containerId, name.kindName, name.name );
+			if ( !changes.deletedNodes().contains( name.node.getId() ) )
 			{
-				return null;
+				cacheCommitted( name );
 			}
-			Node node = graphDb().createNode();
-			T item = null;
+		}
+	}
+	
+	/**
+	 * Called by the {@link MetaModelTransactionEventHandler} when a
+	 * transaction which changed the meta model has been rolled back.
+	 * @param changes the changes made in the transaction.
+	 */
+	void schemaRolledBack( MetaModelTransactionEventHandler.SchemaChanges changes )
+	{
+		typeCodes.finished( changes );
+		if ( changes.onlyInstances() )
+		{
+			return;
+		}
+		transactionFinished( changes );
+		if ( changes.hierarchyChanged() )
+		{
+			hierarchyApplied.incrementAndGet();
+		}
+		for ( Node[] created : changes.createdRestrictions() )
+		{
+			restrictionIndex.evict( created[ 0 ].getId() );
+		}
+	}
+	
+	/**
+	 * Called by the {@link MetaModelTransactionEventHandler} before a
+	 * transaction which changed a hierarchy is committed. Until it has
+	 * been applied, see {@link #schemaCommitted(
+	 * MetaModelTransactionEventHandler.SchemaChanges)}, the
+	 * {@link HierarchyIndex}es may be behind the graph.
+	 */
+	void hierarchyCommitting()
+	{
+		hierarchyCommits.incrementAndGet();
+	}
+	
+	/**
+	 * Caches an object which has been created or renamed, so that the
+	 * first lookup of it doesn't have to go to the index.
+	 */
+	private void cacheCommitted( MetaModelTransactionEventHandler.Name name )
+	{
+		String kind = name.kindName;
+		Class<? extends MetaModelObject> type = MetaModelRelationship.class;
+		if ( kind.equals( MetaModelRelTypes.META_NAMESPACE.name() ) )
+		{
+			type = MetaModelNamespace.class;
+		}
+		else if ( kind.equals( MetaModelRelTypes.META_CLASS.name() ) )
+		{
+			type = MetaModelClass.class;
+		}
+		else if ( kind.equals( MetaModelRelTypes.META_PROPERTY.name() ) )
+		{
+			type = MetaModelProperty.class;
+		}
+		nameCache.put( NameIndex.key( name.containerId, kind, name.name ),
+			wrap( type, name.node ) );
+	}
+	
+	private void transactionFinished(
+		MetaModelTransactionEventHandler.SchemaChanges changes )
+	{
+		if ( changes.unknown() )
+		{
+			nameIndex.clearFilters();
+		}
+		if ( changes.unknown() || changes.restrictionTargetsRemoved() )
+		{
+			restrictionIndex.clear();
+		}
+		else
+		{
+			for ( Long containerId : changes.restrictionContainers() )
+			{
+				restrictionIndex.evict( containerId );
+			}
+		}
+		
+		if ( changes.structureChanged() )
+		{
+			schemaEpoch.advance();
+		}
+		if ( changes.unknown() )
+		{
+			nameCache.clear();
+		}
+		else
+		{
+			evict( nameCache, changes.nodes() );
+		}
+		if ( changes.unknown() )
+		{
+			members.clear();
+			interner.clear();
+		}
+		else
+		{
+			members.changed( changes.touchedNodes() );
+			members.changed( changes.deletedNodes() );
+			interner.evict( changes.deletedNodes() );
+		}
+	}
+	
+	public Collection<MetaModelNamespace> getNamespaces()
+	{
+		return namespaces();
+	}
+	
+	private ObjectCollection<MetaModelNamespace> namespaces()
+	{
+		return new ObjectCollection<MetaModelNamespace>(
+			rootNode(), MetaModelRelTypes.META_NAMESPACE,
+			Direction.OUTGOING, this, MetaModelNamespace.class );
+	}
+	
+	/**
+	 * Called whenever the meta model structure is modified through this
+	 * meta model, within the transaction which does it, so that cached
+	 * information derived from it (f.ex.
+	 * {@link #lookup(MetaModelProperty, PropertyLookerUpper, MetaModelClass...)}
+	 * results) is discarded. The transaction bypasses the caches until it's
+	 * committed, see {@link PendingChanges}.
+	 */
+	void schemaChanged()
+	{
+		pendingChanges.schemaChanged();
+		schemaEpoch.advance();
+	}
+	
+	PendingChanges pendingChanges()
+	{
+		return this.pendingChanges;
+	}
+	
+	/**
+	 * @param subType the relationship type of a hierarchy, f.ex.
+	 * {@link MetaModelRelTypes#META_IS_SUBCLASS_OF}.
+	 * @return the {@link HierarchyIndex} of that hierarchy. It's built the
+	 * first time it's needed and then kept up to date, see
+	 * {@link #hierarchyAdded(String, long, long)}.
+	 */
+	HierarchyIndex hierarchy( RelationshipType subType )
+	{
+		HierarchyIndex result = hierarchies.get( subType.name() );
+		if ( result == null )
+		{
+			long version = hierarchyVersion.get();
+			Transaction tx = graphDb().beginTx();
 			try
 			{
-				item = theClass.getConstructor( MetaModel.class,
-					Node.class ).newInstance( this, node );
+				result = new HierarchyIndex( rootNode(),
+					memberKind( subType ), subType );
+				tx.success();
+			}
+			finally
+			{
+				tx.finish();
+			}
+			synchronized ( hierarchies )
+			{
+				// Changes made while it was built may be missing from it,
+				// and one built by a transaction with pending changes may
+				// include them, then it's only used for this call.
+				if ( version == hierarchyVersion.get() &&
+					!pendingChanges.schema() &&
+					!hierarchies.containsKey( subType.name() ) )
+				{
+					hierarchies.put( subType.name(), result );
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Adds {@code node} and its (recursive) supers to the index of a
+	 * hierarchy, f.ex. for things which aren't in any namespace. Like when
+	 * the index is built, see {@link #hierarchy(RelationshipType)}, the
+	 * graph is read first and the result is dropped if a hierarchy
+	 * relationship has been committed meanwhile.
+	 * @param subType the relationship type of the hierarchy.
+	 * @param hierarchy the index of that hierarchy.
+	 * @param node the node of a thing.
+	 * @return whether or not {@code node} is in the index now. If not the
+	 * caller has to read the graph instead.
+	 */
+	boolean include( RelationshipType subType, HierarchyIndex hierarchy,
+		Node node )
+	{
+		long version = hierarchyVersion.get();
+		Map<Long, Set<Long>> read;
+		Transaction tx = graphDb().beginTx();
+		try
+		{
+			read = hierarchy.read( node, subType );
+			tx.success();
+		}
+		finally
+		{
+			tx.finish();
+		}
+		synchronized ( hierarchies )
+		{
+			if ( version != hierarchyVersion.get() )
+			{
+				return false;
 			}
-			catch ( Exception e )
+			hierarchy.include( read );
+			return true;
+		}
+	}
+	
+	/**
+	 * @param subType the relationship type of the hierarchy.
+	 * @param sub the node of a thing.
+	 * @param superNode the node of another thing.
+	 * @return whether or not {@code sub} is {@code superNode} or a
+	 * (recursive) sub of it, as seen by the current transaction. Normally a
+	 * lookup in the {@link HierarchyIndex}, without a transaction.
+	 */
+	boolean isSubOf( RelationshipType subType, Node sub, Node superNode )
+	{
+		if ( !pendingChanges.schema() )
+		{
+			HierarchyIndex hierarchy = hierarchy( subType );
+			if ( hierarchy.contains( sub.getId() ) &&
+				hierarchy.contains( superNode.getId() ) )
+			{
+				return hierarchy.isSubOf( sub.getId(), superNode.getId() );
+			}
+		}
+		return supers( subType, sub ).contains( superNode.getId() );
+	}
+	
+	/**
+	 * @param subType the relationship type of the hierarchy.
+	 * @param node the node of a thing.
+	 * @return the ids of {@code node} and all its (recursive) supers, as
+	 * seen by the current transaction. A transaction which has pending
+	 * changes doesn't add anything to the shared {@link HierarchyIndex},
+	 * since it would be from its view of the graph: it uses the index plus
+	 * its own {@link HierarchyOverlay}, or reads the graph if that can't be
+	 * done.
+	 */
+	Set<Long> supers( RelationshipType subType, Node node )
+	{
+		Long id = node.getId();
+		if ( !pendingChanges.schema() )
+		{
+			HierarchyIndex hierarchy = hierarchy( subType );
+			if ( hierarchy.contains( id ) ||
+				include( subType, hierarchy, node ) )
+			{
+				return toSet( hierarchy.supers( id ) );
+			}
+		}
+		
+		HierarchyIndex hierarchy = hierarchies.get( subType.name() );
+		HierarchyOverlay overlay = pendingChanges.hierarchy( subType.name() );
+		if ( hierarchy != null && hierarchy.contains( id ) )
+		{
+			if ( overlay == null )
 			{
-				throw new RuntimeException( e );
+				return toSet( hierarchy.supers( id ) );
 			}
-			if ( nameOrNullForGlobal != null )
+			if ( overlay.appliesTo( hierarchy ) )
 			{
-				item.setName( nameOrNullForGlobal );
+				return overlay.supers( hierarchy, id );
 			}
-			collection.add( item );
+		}
+		Transaction tx = graphDb().beginTx();
+		try
+		{
+			Set<Long> result = traverseSupers( subType, node );
 			tx.success();
-			return item;
+			return result;
 		}
 		finally
 		{
@@ -155,48 +788,364 @@ public class MetaModelImpl implements MetaModel
 		}
 	}
 	
-	private <T extends MetaModelObject> T safeGetFromCache(
-		Map<String, T> cacheOrNull, String key )
+	private static Set<Long> toSet( long[] ids )
+	{
+		Set<Long> result = new HashSet<Long>( ids.length * 2 );
+		for ( long id : ids )
+		{
+			result.add( id );
+		}
+		return result;
+	}
+	
+	/**
+	 * Must be called within a transaction.
+	 * @return the ids of {@code node} and all its (recursive) supers, read
+	 * from the graph as seen by the current transaction.
+	 */
+	static Set<Long> traverseSupers( RelationshipType subType,
+		Node node )
 	{
-		T result = null;
-		if ( cacheOrNull != null )
+		Set<Long> result = new HashSet<Long>();
+		result.add( node.getId() );
+		ArrayDeque<Node> queue = new ArrayDeque<Node>();
+		queue.add( node );
+		while ( !queue.isEmpty() )
 		{
-			result = cacheOrNull.get( key );
-			if ( result != null )
+			for ( Relationship rel : queue.removeFirst().getRelationships(
+				subType, Direction.OUTGOING ) )
 			{
-				try
+				Node superNode = rel.getEndNode();
+				if ( result.add( superNode.getId() ) )
 				{
-					graphDb().getNodeById( result.node().getId() );
+					queue.add( superNode );
 				}
-				catch ( NotFoundException e )
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks that a hierarchy relationship from {@code sub} to
+	 * {@code superNode} wouldn't create a cycle, i.e. that {@code superNode}
+	 * isn't {@code sub} or one of its subs, see
+	 * {@link #isSubOf(RelationshipType, Node, Node)}. Must be called within
+	 * the transaction which is to create the relationship: it locks the two
+	 * nodes until that transaction finishes, so that two transactions can't
+	 * add the opposite relationships between them. The graph is only read
+	 * if the {@link HierarchyIndex} may be behind, i.e. if a transaction
+	 * which changed a hierarchy has been committed but not yet applied to
+	 * it.
+	 * @param subType the relationship type of the hierarchy.
+	 * @param sub the node of the sub.
+	 * @param superNode the node of the super.
+	 * @throws HierarchyCycleException if it would create a cycle.
+	 */
+	void checkHierarchyAdd( RelationshipType subType, Node sub, Node superNode )
+	{
+		// In the order of their ids, so that such transactions wait for
+		// each other instead of deadlocking.
+		boolean subFirst = sub.getId() < superNode.getId();
+		lock( subFirst ? sub : superNode );
+		lock( subFirst ? superNode : sub );
+		boolean cycle = hierarchyCommits.get() != hierarchyApplied.get() ?
+			traverseSupers( subType, superNode ).contains( sub.getId() ) :
+			isSubOf( subType, superNode, sub );
+		if ( cycle )
+		{
+			throw new HierarchyCycleException( "A " + subType.name() +
+				" relationship from " + sub + " to " + superNode +
+				" would create a cycle" );
+		}
+	}
+	
+	/**
+	 * Called when a hierarchy relationship has been created or deleted
+	 * through this meta model, within the transaction which did it. The
+	 * shared {@link HierarchyIndex} is updated when it has been committed.
+	 * @param subTypeName the name of the relationship type.
+	 * @param subId the id of the start node, the sub.
+	 * @param superId the id of the end node, the super.
+	 * @param created whether it was created or deleted.
+	 */
+	void hierarchyEdited( String subTypeName, long subId, long superId,
+		boolean created )
+	{
+		pendingChanges.hierarchyChanged( subTypeName, subId, superId,
+			created );
+	}
+	
+	/**
+	 * Called when a hierarchy relationship has been created by a committed
+	 * transaction.
+	 * @param subTypeName the name of the relationship type.
+	 * @param subId the id of the start node, the sub.
+	 * @param superId the id of the end node, the super.
+	 */
+	private void hierarchyAdded( String subTypeName, long subId, long superId )
+	{
+		classHierarchyChanged( subTypeName );
+		synchronized ( hierarchies )
+		{
+			hierarchyVersion.incrementAndGet();
+			HierarchyIndex hierarchy = hierarchies.get( subTypeName );
+			if ( hierarchy != null )
+			{
+				hierarchy.added( subId, superId );
+			}
+		}
+	}
+	
+	/**
+	 * Called when a hierarchy relationship has been deleted by a committed
+	 * transaction.
+	 * @param subTypeName the name of the relationship type.
+	 * @param subId the id of the start node, the sub.
+	 * @param superId the id of the end node, the super.
+	 */
+	private void hierarchyRemoved( String subTypeName, long subId,
+		long superId )
+	{
+		classHierarchyChanged( subTypeName );
+		synchronized ( hierarchies )
+		{
+			hierarchyVersion.incrementAndGet();
+			HierarchyIndex hierarchy = hierarchies.get( subTypeName );
+			if ( hierarchy != null )
+			{
+				hierarchy.removed( subId, superId );
+			}
+		}
+	}
+	
+	/**
+	 * Discards the index of a hierarchy, or of all of them, which will then
+	 * be rebuilt when needed.
+	 * @param subTypeNameOrNull the name of the relationship type of the
+	 * hierarchy, or {@code null} for all.
+	 */
+	private void hierarchyInvalidated( String subTypeNameOrNull )
+	{
+		classHierarchyChanged( subTypeNameOrNull );
+		synchronized ( hierarchies )
+		{
+			hierarchyVersion.incrementAndGet();
+			if ( subTypeNameOrNull == null )
+			{
+				hierarchies.clear();
+			}
+			else
+			{
+				hierarchies.remove( subTypeNameOrNull );
+			}
+		}
+	}
+	
+	private void classHierarchyChanged( String subTypeNameOrNull )
+	{
+		if ( subTypeNameOrNull == null || subTypeNameOrNull.equals(
+			MetaModelRelTypes.META_IS_SUBCLASS_OF.name() ) )
+		{
+			typeCodes.clear();
+		}
+	}
+	
+	private static RelationshipType memberKind( RelationshipType subType )
+	{
+		if ( subType == MetaModelRelTypes.META_IS_SUBCLASS_OF )
+		{
+			return MetaModelRelTypes.META_CLASS;
+		}
+		else if ( subType == MetaModelRelTypes.META_IS_SUBPROPERTY_OF )
+		{
+			return MetaModelRelTypes.META_PROPERTY;
+		}
+		else if ( subType == MetaModelRelTypes.META_IS_SUBRELATIONSHIP_OF )
+		{
+			return MetaModelRelTypes.META_RELATIONSHIP;
+		}
+		throw new IllegalArgumentException( "Not a hierarchy " + subType );
+	}
+	
+	/**
+	 * @param thing the thing to get the linearization for.
+	 * @return the (cached) linearization of {@code thing}, see
+	 * {@link Linearization}. The array is shared and must not be modified.
+	 */
+	MetaModelThing[] linearization( MetaModelThing thing )
+	{
+		MetaModelThing[] result = linearizations.get( thing );
+		if ( result == null )
+		{
+			long epoch = linearizations.epoch();
+			Transaction tx = graphDb().beginTx();
+			try
+			{
+				result = Linearization.compute( thing );
+				tx.success();
+			}
+			finally
+			{
+				tx.finish();
+			}
+			linearizations.put( thing, result, epoch );
+		}
+		return result;
+	}
+	
+	/**
+	 * @param cls the class to get the restrictions for.
+	 * @return the (cached) compiled restrictions of {@code cls}, see
+	 * {@link EffectiveRestrictions}.
+	 */
+	EffectiveRestrictions effectiveRestrictions( MetaModelClass cls )
+	{
+		EffectiveRestrictions result = restrictionTables.get( cls );
+		if ( result == null )
+		{
+			long epoch = restrictionTables.epoch();
+			Transaction tx = graphDb().beginTx();
+			try
+			{
+				result = EffectiveRestrictions.compile( cls );
+				tx.success();
+			}
+			finally
+			{
+				tx.finish();
+			}
+			restrictionTables.put( cls, result, epoch );
+		}
+		return result;
+	}
+	
+	/**
+	 * @param thing a {@link MetaModelProperty} or {@link MetaModelRelationship}.
+	 * @return the (cached) min and max cardinality of {@code thing} itself
+	 * or its nearest super thing which has one, indexed by
+	 * {@link EffectiveRestrictions#MIN} and {@link EffectiveRestrictions#MAX}.
+	 */
+	private int[] ownCardinalities( MetaModelThing thing )
+	{
+		int[] result = cardinalities.get( thing );
+		if ( result == null )
+		{
+			long epoch = cardinalities.epoch();
+			Transaction tx = graphDb().beginTx();
+			try
+			{
+				result = new int[] { CARDINALITY_UNSET, CARDINALITY_UNSET };
+				for ( MetaModelThing superThing : thing.linearization() )
 				{
-					cacheOrNull.remove( result );
-					result = null;
+					MetaModelRestrictable<?> restrictable =
+						( MetaModelRestrictable<?> ) superThing;
+					if ( result[ EffectiveRestrictions.MIN ] ==
+						CARDINALITY_UNSET )
+					{
+						result[ EffectiveRestrictions.MIN ] =
+							EffectiveRestrictions.cardinality(
+							restrictable.getMinCardinality() );
+					}
+					if ( result[ EffectiveRestrictions.MAX ] ==
+						CARDINALITY_UNSET )
+					{
+						result[ EffectiveRestrictions.MAX ] =
+							EffectiveRestrictions.cardinality(
+							restrictable.getMaxCardinality() );
+					}
 				}
+				tx.success();
 			}
+			finally
+			{
+				tx.finish();
+			}
+			cardinalities.put( thing, result, epoch );
 		}
 		return result;
 	}
 	
-	public Collection<MetaModelNamespace> getNamespaces()
+	private int lookupCardinality( MetaModelThing propertyOrRelationshipType,
+		int minOrMax, MetaModelClass[] classes )
 	{
-		return new ObjectCollection<MetaModelNamespace>(
-			rootNode(), MetaModelRelTypes.META_NAMESPACE,
-			Direction.OUTGOING, this, MetaModelNamespace.class );
+		for ( MetaModelClass cls : classes )
+		{
+			int value = cls.effectiveRestrictions().cardinality(
+				propertyOrRelationshipType, minOrMax );
+			if ( value != CARDINALITY_UNSET )
+			{
+				return value;
+			}
+		}
+		return ownCardinalities( propertyOrRelationshipType )[ minOrMax ];
+	}
+	
+	public int lookupMinCardinality( MetaModelProperty property,
+		MetaModelClass... classes )
+	{
+		return lookupCardinality( property, EffectiveRestrictions.MIN, classes );
+	}
+	
+	public int lookupMaxCardinality( MetaModelProperty property,
+		MetaModelClass... classes )
+	{
+		return lookupCardinality( property, EffectiveRestrictions.MAX, classes );
+	}
+	
+	public int lookupMinCardinality( MetaModelRelationship relationshipType,
+		MetaModelClass... classes )
+	{
+		return lookupCardinality( relationshipType, EffectiveRestrictions.MIN,
+			classes );
 	}
 	
+	public int lookupMaxCardinality( MetaModelRelationship relationshipType,
+		MetaModelClass... classes )
+	{
+		return lookupCardinality( relationshipType, EffectiveRestrictions.MAX,
+			classes );
+	}
+	
+	@SuppressWarnings( "unchecked" )
 	public <T> T lookup( MetaModelProperty property, PropertyLookerUpper<T> finder,
 		MetaModelClass... classes )
 	{
-		// TODO Maybe add some form of caching here since this method will be
-		// HEAVILY used. It's the main way of looking things up in the meta
-		// model, f.ex. validation and conversion of values a.s.o.
+		// This method is HEAVILY used, it's the main way of looking things
+		// up in the meta model, f.ex. validation and conversion of values
+		// a.s.o. so the results are cached until the meta model changes.
+		return ( T ) cachedLookup( property, finder, classes );
+	}
+	
+	@SuppressWarnings( "unchecked" )
+	public <T> T lookup( MetaModelRelationship relationshipType, RelationshipLookerUpper<T> finder,
+			MetaModelClass... classes )
+	{
+		return ( T ) cachedLookup( relationshipType, finder, classes );
+	}
+	
+	/**
+	 * @param target a {@link MetaModelProperty} or a
+	 * {@link MetaModelRelationship}.
+	 * @param finder a {@link PropertyLookerUpper} or a
+	 * {@link RelationshipLookerUpper} respectively.
+	 */
+	private Object cachedLookup( MetaModelObject target, Object finder,
+		MetaModelClass[] classes )
+	{
+		LookupCache.Key key = new LookupCache.Key( target, finder, classes );
+		Object cached = lookupCache.get( key );
+		if ( cached != null )
+		{
+			return LookupCache.unmask( cached );
+		}
 		
+		long epoch = lookupCache.epoch();
 		Transaction tx = graphDb().beginTx();
 		try
 		{
-			T result = LookupUtil.lookup( property, finder, classes );
+			Object result = uncachedLookup( target, finder, classes );
 			tx.success();
+			lookupCache.put( key, LookupCache.mask( result ), epoch );
 			return result;
 		}
 		finally
@@ -204,24 +1153,72 @@ public class MetaModelImpl implements MetaModel
 			tx.finish();
 		}
 	}
-	public <T> T lookup( MetaModelRelationship relationshipType, RelationshipLookerUpper<T> finder,
-			MetaModelClass... classes )
+	
+	@SuppressWarnings( "unchecked" )
+	private static Object uncachedLookup( MetaModelObject target,
+		Object finder, MetaModelClass[] classes )
 	{
-		// TODO Maybe add some form of caching here since this method will be
-		// HEAVILY used. It's the main way of looking things up in the meta
-		// model, f.ex. validation and conversion of values a.s.o.
-		
+		if ( target instanceof MetaModelProperty )
+		{
+			return LookupUtil.lookup( ( MetaModelProperty ) target,
+				( PropertyLookerUpper<Object> ) finder, classes );
+		}
+		return LookupUtil.lookup( ( MetaModelRelationship ) target,
+			( RelationshipLookerUpper<Object> ) finder, classes );
+	}
+	
+	public LookupResults lookupAll( Collection<MetaModelProperty> properties,
+		PropertyLookerUpper<?>[] finders, MetaModelClass... classes )
+	{
+		return lookupAll( properties.toArray(
+			new MetaModelProperty[ properties.size() ] ), finders, classes );
+	}
+	
+	public LookupResults lookupAll(
+		Collection<MetaModelRelationship> relationshipTypes,
+		RelationshipLookerUpper<?>[] finders, MetaModelClass... classes )
+	{
+		return lookupAll( relationshipTypes.toArray(
+			new MetaModelRelationship[ relationshipTypes.size() ] ), finders,
+			classes );
+	}
+	
+	private LookupResults lookupAll( MetaModelObject[] rows, Object[] finders,
+		MetaModelClass[] classes )
+	{
+		Object[][] values = new Object[ rows.length ][ finders.length ];
+		long epoch = lookupCache.epoch();
 		Transaction tx = graphDb().beginTx();
 		try
 		{
-			T result = LookupUtil.lookup( relationshipType, finder, classes );
+			for ( int row = 0; row < rows.length; row++ )
+			{
+				for ( int column = 0; column < finders.length; column++ )
+				{
+					LookupCache.Key key = new LookupCache.Key( rows[ row ],
+						finders[ column ], classes );
+					Object value = lookupCache.get( key );
+					if ( value == null )
+					{
+						value = uncachedLookup( rows[ row ],
+							finders[ column ], classes );
+						lookupCache.put( key, LookupCache.mask( value ),
+							epoch );
+					}
+					else
+					{
+						value = LookupCache.unmask( value );
+					}
+					values[ row ][ column ] = value;
+				}
+			}
 			tx.success();
-			return result;
 		}
 		finally
 		{
 			tx.finish();
 		}
+		return new LookupResults( rows, finders, values );
 	}
 
 }
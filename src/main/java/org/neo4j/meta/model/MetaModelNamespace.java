@@ -2,12 +2,12 @@ package org.neo4j.meta.model;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
 
 /**
  * Represents a namespace in the meta model structure. A namespace is useful
@@ -15,9 +15,16 @@ import org.neo4j.graphdb.Relationship;
  */
 public class MetaModelNamespace extends MetaModelObject
 {
-    private Map<String, MetaModelClass> classCache = Collections.synchronizedMap( new HashMap<String, MetaModelClass>() );
-    private Map<String, MetaModelProperty> propertyCache = Collections.synchronizedMap( new HashMap<String, MetaModelProperty>() );
-    private Map<String, MetaModelRelationship> relationshipTypeCache = Collections.synchronizedMap( new HashMap<String, MetaModelRelationship>() );
+    private static final RelationshipType[] MEMBER_KINDS = {
+            MetaModelRelTypes.META_CLASS, MetaModelRelTypes.META_PROPERTY,
+            MetaModelRelTypes.META_RELATIONSHIP };
+
+    /**
+     * The number of deletions per transaction of a forced
+     * {@link #remove(String, Boolean)}.
+     */
+    static final int DEFAULT_REMOVAL_BATCH_SIZE = 1000;
+
 
     /**
      * @param model the {@link MetaModel} instance.
@@ -39,11 +46,9 @@ public class MetaModelNamespace extends MetaModelObject
      *         {@code name}.
      */
     public MetaModelClass getMetaClass( String name, boolean allowCreate )
-            throws DuplicateNameException
     {
         return ( (MetaModelImpl) model() ).findOrCreateInCollection(
-                getMetaClasses(), name, allowCreate, MetaModelClass.class,
-                classCache );
+                metaClasses(), name, allowCreate, MetaModelClass.class );
     }
 
     /**
@@ -51,6 +56,11 @@ public class MetaModelNamespace extends MetaModelObject
      *         for this namespace.
      */
     public Collection<MetaModelClass> getMetaClasses()
+    {
+        return metaClasses();
+    }
+
+    private ObjectCollection<MetaModelClass> metaClasses()
     {
         return new ObjectCollection<MetaModelClass>( node(),
                 MetaModelRelTypes.META_CLASS, Direction.OUTGOING, model(),
@@ -68,11 +78,10 @@ public class MetaModelNamespace extends MetaModelObject
      *         {@code name}.
      */
     public MetaModelProperty getMetaProperty( String name, boolean allowCreate )
-            throws DuplicateNameException
     {
         return ( (MetaModelImpl) model() ).findOrCreateInCollection(
-                getMetaProperties(), name, allowCreate,
-                MetaModelProperty.class, propertyCache );
+                metaProperties(), name, allowCreate,
+                MetaModelProperty.class );
     }
 
     /**
@@ -86,11 +95,28 @@ public class MetaModelNamespace extends MetaModelObject
      *         given {@code name}.
      */
     public MetaModelRelationship getMetaRelationship( String name,
-            boolean allowCreate ) throws DuplicateNameException
+            boolean allowCreate )
     {
         return ( (MetaModelImpl) model() ).findOrCreateInCollection(
-                getMetaRelationships(), name, allowCreate,
-                MetaModelRelationship.class, relationshipTypeCache );
+                metaRelationships(), name, allowCreate,
+                MetaModelRelationship.class );
+    }
+
+    /**
+     * Creates all the classes, properties, relationship types, hierarchies
+     * and restrictions of {@code definition} which don't already exist in
+     * this namespace. Names are resolved in memory and everything is
+     * written in transactions of {@code batchSize} objects, which makes
+     * this much faster than creating them one by one.
+     * 
+     * @param definition the definitions to create.
+     * @param batchSize the max number of objects to write per transaction.
+     * @return the number of names, hierarchy relationships and restrictions
+     *         which were written.
+     */
+    public int define( SchemaDefinition definition, int batchSize )
+    {
+        return new BulkLoader( this, batchSize ).load( definition );
     }
 
     /**
@@ -101,25 +127,102 @@ public class MetaModelNamespace extends MetaModelObject
      */
     public void rename( String oldName, String newName )
     {
-        Node metaObjectNode = indexService().getSingleNode( KEY_NAME, oldName );
+        Node metaObjectNode = findMember( oldName );
         if ( metaObjectNode == null )
             throw new RuntimeException(
                     "Attempt to rename non-existing meta object" );
         else
         {
-            if ( indexService().getSingleNode( KEY_NAME, newName ) != null )
+            if ( findMember( newName ) != null )
                 throw new RuntimeException(
                         "Attempt to rename meta object to an existing name" );
             else
             {
+                RelationshipType kind = kindOf( metaObjectNode );
+                schemaChanged();
                 metaObjectNode.setProperty( KEY_NAME, newName );
-                indexService().removeIndex( metaObjectNode, KEY_NAME );
-                indexService().index( metaObjectNode, KEY_NAME, newName );
-                classCache.remove( oldName );
-                classCache.put( newName, new MetaModelClass( model(),
-                        metaObjectNode ) );
+                if ( kind != null )
+                {
+                    nameIndex().remove( metaObjectNode, node(), kind, oldName );
+                    nameIndex().index( metaObjectNode, node(), kind, newName );
+                }
+                removeFromCaches( oldName );
+            }
+        }
+    }
+
+    private NameIndex nameIndex()
+    {
+        return ( (MetaModelImpl) model() ).nameIndex();
+    }
+
+    /**
+     * @return the node of the class, property or relationship type in this
+     *         namespace with the given name, or {@code null}.
+     */
+    private Node findMember( String name )
+    {
+        for ( RelationshipType kind : MEMBER_KINDS )
+        {
+            Node member = nameIndex().get( node(), kind, name );
+            if ( member != null )
+            {
+                return member;
+            }
+        }
+        return nameIndex().isComplete() ? null : scanMembers( name );
+    }
+
+    /**
+     * Looks for a member by its name property, for stores where the
+     * {@link NameIndex} isn't complete yet. The {@link #KEY_NAME} index of
+     * the index service is global so it may return an object in another
+     * namespace, which is why this namespace is scanned instead.
+     */
+    private Node scanMembers( String name )
+    {
+        for ( RelationshipType kind : MEMBER_KINDS )
+        {
+            for ( Relationship rel : node().getRelationships( kind,
+                    Direction.OUTGOING ) )
+            {
+                Node member = rel.getEndNode();
+                if ( name.equals( member.getProperty( KEY_NAME, null ) ) )
+                {
+                    return member;
+                }
             }
         }
+        return null;
+    }
+
+    /**
+     * @return the relationship type from this namespace to {@code member},
+     *         or {@code null} if it isn't in this namespace.
+     */
+    private RelationshipType kindOf( Node member )
+    {
+        for ( RelationshipType kind : MEMBER_KINDS )
+        {
+            for ( Relationship rel : member.getRelationships( kind,
+                    Direction.INCOMING ) )
+            {
+                if ( rel.getStartNode().equals( node() ) )
+                {
+                    return kind;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void removeFromCaches( String name )
+    {
+        for ( RelationshipType kind : MEMBER_KINDS )
+        {
+            ( (MetaModelImpl) model() ).nameCache().remove(
+                    NameIndex.key( node(), kind, name ) );
+        }
     }
 
     /**
@@ -129,42 +232,104 @@ public class MetaModelNamespace extends MetaModelObject
      * @param forced if {@code true} meta model object will be removed including
      *            all its {@link Relationship}s If (@code false) an exception
      *            will be thrown when the meta model object has
-     *            {@link Relationship}s
+     *            {@link Relationship}s. A forced removal is done as by
+     *            {@link #removeCascading(String, int, RemovalListener)}.
+     * @throws IllegalArgumentException if there's no meta model object
+     *             named {@code name} in this namespace.
      */
     public void remove( String name, Boolean forced )
     {
-        Node metaObjectNode = indexService().getSingleNode( KEY_NAME, name );
         if ( forced )
         {
-            classCache.remove( name );
+            removeCascading( name, DEFAULT_REMOVAL_BATCH_SIZE, null );
+            return;
+        }
+        Node metaObjectNode = findMember( name );
+        RelationshipType kind = metaObjectNode != null ?
+                kindOf( metaObjectNode ) : null;
+        if ( kind == null )
+        {
+            throw new IllegalArgumentException( "No meta object '" + name +
+                    "' in " + this );
+        }
+        if ( metaObjectNode.hasRelationship() )
+        {
+            throw new RuntimeException(
+                    "Meta object cannot be removed, it has relationships with other meta objects" );
+        }
+        else
+        {
+            removeFromCaches( name );
+            removeFromIndexes( metaObjectNode, kind, name );
             
-            for ( Relationship rel : metaObjectNode.getRelationships() )
-            {
-                rel.delete();
-            }
             for ( String key : metaObjectNode.getPropertyKeys() )
             {
                 metaObjectNode.removeProperty( key );
             }
             metaObjectNode.delete();
+            deleted( metaObjectNode );
+            schemaChanged();
         }
-        else
+    }
+
+    /**
+     * Removes a class, property or relationship type including all its
+     * {@link Relationship}s, f.ex. to its instances, and the restrictions
+     * on or of it. The deletions are committed {@code batchSize} at a time
+     * so that objects with lots of instances can be removed without one
+     * huge transaction (unless this is called within a transaction, which
+     * the batches then become part of). The object is removed from this
+     * namespace in the first transaction. If the removal is interrupted it
+     * can be completed with
+     * {@link MetaModelImpl#resumeRemovals(int, RemovalListener)}.
+     * 
+     * @param name the name of the meta model object.
+     * @param batchSize the max number of deletions per transaction.
+     * @param listenerOrNull receives the progress of the removal, or
+     *            {@code null}.
+     * @return the number of relationships of the object which were deleted,
+     *         not counting the ones of deleted restrictions.
+     */
+    public long removeCascading( String name, int batchSize,
+            RemovalListener listenerOrNull )
+    {
+        CascadeRemover remover = new CascadeRemover( (MetaModelImpl) model(),
+                batchSize, listenerOrNull );
+        Node metaObjectNode;
+        Transaction tx = model().graphDb().beginTx();
+        try
         {
-            if ( metaObjectNode.hasRelationship() )
-            {
-                throw new RuntimeException(
-                        "Meta object cannot be removed, it has relationships with other meta objects" );
-            }
-            else
+            metaObjectNode = findMember( name );
+            RelationshipType kind = metaObjectNode != null ?
+                    kindOf( metaObjectNode ) : null;
+            if ( kind == null )
             {
-                classCache.remove( name );
-                
-                for ( String key : metaObjectNode.getPropertyKeys() )
-                {
-                    metaObjectNode.removeProperty( key );
-                }
-                metaObjectNode.delete();
+                throw new IllegalArgumentException( "No meta object '" +
+                        name + "' in " + this );
             }
+            remover.start( node(), kind, metaObjectNode );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        removeFromCaches( name );
+        return remover.remove( metaObjectNode );
+    }
+
+    private void deleted( Node metaObjectNode )
+    {
+        ( (MetaModelImpl) model() ).deleted(
+                Collections.singleton( metaObjectNode.getId() ) );
+    }
+
+    private void removeFromIndexes( Node metaObjectNode, RelationshipType kind,
+            String name )
+    {
+        if ( kind != null )
+        {
+            nameIndex().remove( metaObjectNode, node(), kind, name );
         }
     }
 
@@ -173,6 +338,11 @@ public class MetaModelNamespace extends MetaModelObject
      *         instances for this namespace.
      */
     public Collection<MetaModelProperty> getMetaProperties()
+    {
+        return metaProperties();
+    }
+
+    private ObjectCollection<MetaModelProperty> metaProperties()
     {
         return new ObjectCollection<MetaModelProperty>( node(),
                 MetaModelRelTypes.META_PROPERTY, Direction.OUTGOING, model(),
@@ -184,6 +354,11 @@ public class MetaModelNamespace extends MetaModelObject
      *         instances for this namespace.
      */
     public Collection<MetaModelRelationship> getMetaRelationships()
+    {
+        return metaRelationships();
+    }
+
+    private ObjectCollection<MetaModelRelationship> metaRelationships()
     {
         return new ObjectCollection<MetaModelRelationship>( node(),
                 MetaModelRelTypes.META_RELATIONSHIP, Direction.OUTGOING,
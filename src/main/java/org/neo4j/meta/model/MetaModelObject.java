@@ -59,6 +59,20 @@ public abstract class MetaModelObject
 	{
 		return ( ( MetaModelImpl ) model() ).indexService();
 	}
+	
+	RestrictionIndex restrictionIndex()
+	{
+		return ( ( MetaModelImpl ) model() ).restrictionIndex();
+	}
+	
+	/**
+	 * @return the canonical {@link MetaModelObject} of type {@code type}
+	 * wrapping {@code node}.
+	 */
+	protected <T extends MetaModelObject> T wrap( Class<T> type, Node node )
+	{
+		return ( ( MetaModelImpl ) model() ).wrap( type, node );
+	}
 
 	
 	/**
@@ -69,6 +83,15 @@ public abstract class MetaModelObject
 		return this.node;
 	}
 	
+	/**
+	 * Notifies the {@link MetaModel} that the structure it describes has
+	 * been modified, so that information derived from it is discarded.
+	 */
+	protected void schemaChanged()
+	{
+		( ( MetaModelImpl ) model() ).schemaChanged();
+	}
+	
 	protected void setOrRemoveProperty( String key, Object value )
 	{
 		if ( value == null )
@@ -79,6 +102,7 @@ public abstract class MetaModelObject
 		{
 			node().setProperty( key, value );
 		}
+		schemaChanged();
 	}
 	
 	protected void setSingleRelationshipOrNull( Node node,
@@ -96,6 +120,7 @@ public abstract class MetaModelObject
 			{
 				node().createRelationshipTo( node, type );
 			}
+			schemaChanged();
 			tx.success();
 		}
 		finally
@@ -110,14 +135,14 @@ public abstract class MetaModelObject
 		        node().getRelationships( type ).iterator() );
 	}
 	
-	void setName( String name ) throws DuplicateNameException
+	/**
+	 * Sets the name of a newly created object. Uniqueness of the name within
+	 * its namespace is guaranteed by the caller through the {@link NameIndex},
+	 * so the same name may be used in different namespaces.
+	 */
+	void setName( String name )
 	{
 		node().setProperty( KEY_NAME, name );
-		if(indexService().getSingleNode(KEY_NAME, name) != null){
-			throw new DuplicateNameException();
-		}else{
-			indexService().index(node(), KEY_NAME, name);
-		}
 	}
 	
 	/**
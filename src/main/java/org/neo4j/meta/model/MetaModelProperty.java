@@ -51,6 +51,62 @@ public class MetaModelProperty extends MetaModelThing
 		return MetaModelRelTypes.META_IS_SUBPROPERTY_OF;
 	}
 	
+	@Override
+	MetaModelProperty[] linearization()
+	{
+		return ( MetaModelProperty[] ) super.linearization();
+	}
+	
+	/**
+	 * @param others other properties.
+	 * @return an unmodifiable collection of the properties which this
+	 * property and all of {@code others} are, or are (recursive) subproperties of.
+	 */
+	public Collection<MetaModelProperty> getCommonSupers(
+		MetaModelProperty... others )
+	{
+		return commonSupers( MetaModelProperty.class, false, others );
+	}
+	
+	/**
+	 * @param others other properties.
+	 * @return an unmodifiable collection of the most specific of the
+	 * {@link #getCommonSupers(MetaModelProperty...)}, i.e. the ones which
+	 * aren't supers of any other common super. With multiple inheritance
+	 * there may be more than one.
+	 */
+	public Collection<MetaModelProperty> getLeastCommonSupers(
+		MetaModelProperty... others )
+	{
+		return commonSupers( MetaModelProperty.class, true, others );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelProperty>> getAllSupers(
+		int maxDepth )
+	{
+		return allSupers( MetaModelProperty.class, maxDepth );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelProperty>> getAllSupers()
+	{
+		return getAllSupers( Integer.MAX_VALUE );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelProperty>> getAllSubs(
+		int maxDepth )
+	{
+		return allSubs( MetaModelProperty.class, maxDepth );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelProperty>> getAllSubs()
+	{
+		return getAllSubs( Integer.MAX_VALUE );
+	}
+	
 	/**
 	 * @return a modifiable {@link Collection} of {@link MetaModelPropertyContainer}
 	 * instances which this property has as domain.
@@ -161,7 +217,7 @@ public class MetaModelProperty extends MetaModelThing
 	{
 		Relationship rel = getSingleRelationshipOrNull(
 			MetaModelRelTypes.META_IS_INVERSE_OF );
-		return rel == null ? null : new MetaModelProperty( model(),
+		return rel == null ? null : wrap( MetaModelProperty.class,
 			rel.getOtherNode( node() ) );
 	}
 }
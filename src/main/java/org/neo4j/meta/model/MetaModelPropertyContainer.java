@@ -1,8 +1,8 @@
 package org.neo4j.meta.model;
 
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
@@ -75,16 +75,25 @@ public abstract class MetaModelPropertyContainer extends MetaModelThing{
 	 */
 	public Collection<MetaModelProperty> getAllProperties()
 	{
+		MemberSet<MetaModelProperty> cached = members().get( node().getId(),
+			MemberCache.ALL_PROPERTIES );
+		if ( cached != null )
+		{
+			return cached;
+		}
+		long version = members().version();
 		Transaction tx = graphDb().beginTx();
 		try
 		{
-			HashSet<MetaModelProperty> properties =
-				new HashSet<MetaModelProperty>();
+			Set<MetaModelProperty> properties =
+				new LinkedHashSet<MetaModelProperty>();
+			MemberCache.Footprint footprint =
+				new MemberCache.Footprint( new AllPropertiesRE() );
 			for ( Node node : node().traverse( Traverser.Order.BREADTH_FIRST,
 				StopEvaluator.END_OF_GRAPH,
 				
 				// Maybe remove these four lines? They go for subproperties too
-				new AllPropertiesRE(),
+				footprint,
 				MetaModelRelTypes.META_IS_SUBPROPERTY_OF,
 					Direction.INCOMING,
 				MetaModelRelTypes.META_HAS_PROPERTY,
@@ -94,9 +103,10 @@ public abstract class MetaModelPropertyContainer extends MetaModelThing{
 				MetaModelRelTypes.META_IS_SUBCLASS_OF,
 					Direction.OUTGOING ) )
 			{
-				properties.add( new MetaModelProperty( model(), node ) );
+				properties.add( wrap( MetaModelProperty.class, node ) );
 			}
-			return Collections.unmodifiableSet( properties );
+			return members().put( node().getId(), MemberCache.ALL_PROPERTIES,
+				properties, footprint, version );
 		}
 		finally
 		{
@@ -128,14 +138,10 @@ public abstract class MetaModelPropertyContainer extends MetaModelThing{
 		Transaction tx = graphDb().beginTx();
 		try
 		{
-			Collection<MetaModelPropertyRestriction> restrictions =
-				getDirectPropertyRestrictions();
-			for ( MetaModelPropertyRestriction restriction : restrictions )
+			Node existing = restrictionIndex().get( node(), property.node() );
+			if ( existing != null )
 			{
-				if ( restriction.getMetaProperty().equals( property ) )
-				{
-					return restriction;
-				}
+				return wrap( MetaModelPropertyRestriction.class, existing );
 			}
 			if ( !allowCreate )
 			{
@@ -148,11 +154,13 @@ public abstract class MetaModelPropertyContainer extends MetaModelThing{
 //					property + " add it first" );
 //			}
 			Node node = graphDb().createNode();
-			MetaModelPropertyRestriction result = new MetaModelPropertyRestriction(
-				model(), node );
-			restrictions.add( result );
+			MetaModelPropertyRestriction result = wrap(
+				MetaModelPropertyRestriction.class, node );
+			getDirectPropertyRestrictions().add( result );
 			node.createRelationshipTo( property.node(),
 				MetaModelRelTypes.META_RESTRICTION_TO_PROPERTY );
+			schemaChanged();
+			restrictionIndex().created( node(), property.node(), node );
 			tx.success();
 			return result;
 		}
@@ -164,15 +172,24 @@ public abstract class MetaModelPropertyContainer extends MetaModelThing{
 	
 	public Collection<MetaModelPropertyRestriction> getAllPropertyRestrictions()
 	{
+		MemberSet<MetaModelPropertyRestriction> cached = members().get(
+			node().getId(), MemberCache.ALL_PROPERTY_RESTRICTIONS );
+		if ( cached != null )
+		{
+			return cached;
+		}
+		long version = members().version();
 		Transaction tx = graphDb().beginTx();
 		try
 		{
-			HashSet<MetaModelPropertyRestriction> restrictions =
-				new HashSet<MetaModelPropertyRestriction>();
+			Set<MetaModelPropertyRestriction> restrictions =
+				new LinkedHashSet<MetaModelPropertyRestriction>();
+			MemberCache.Footprint footprint = new MemberCache.Footprint(
+				new OneOfRelTypesReturnableEvaluator( MetaModelRelTypes.
+					META_PROPERTY_RESTRICTION_TO_PROPERTYCONTAINER ) );
 			for ( Node node : node().traverse( Traverser.Order.BREADTH_FIRST,
 				StopEvaluator.END_OF_GRAPH,
-				new OneOfRelTypesReturnableEvaluator(
-					MetaModelRelTypes.META_PROPERTY_RESTRICTION_TO_PROPERTYCONTAINER ),
+				footprint,
 				MetaModelRelTypes.META_PROPERTY_RESTRICTION_TO_PROPERTYCONTAINER,
 					Direction.INCOMING,
 				MetaModelRelTypes.META_IS_SUBCLASS_OF,
@@ -181,9 +198,11 @@ public abstract class MetaModelPropertyContainer extends MetaModelThing{
 					Direction.OUTGOING ))
 			{
 				restrictions.add(
-					new MetaModelPropertyRestriction( model(), node ) );
+					wrap( MetaModelPropertyRestriction.class, node ) );
 			}
-			return Collections.unmodifiableSet( restrictions );
+			return members().put( node().getId(),
+				MemberCache.ALL_PROPERTY_RESTRICTIONS, restrictions, footprint,
+				version );
 		}
 		finally
 		{
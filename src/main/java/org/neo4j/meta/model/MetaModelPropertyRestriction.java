@@ -26,7 +26,7 @@ public class MetaModelPropertyRestriction extends MetaModelObject
 	 */
 	public MetaModelClass getMetaPropertyContainer()
 	{
-		return new MetaModelClass( model(),
+		return wrap( MetaModelClass.class,
 			graphDbUtil().getSingleOtherNode( node(),
 				MetaModelRelTypes.META_PROPERTY_RESTRICTION_TO_PROPERTYCONTAINER,
 				Direction.OUTGOING ) );
@@ -37,7 +37,7 @@ public class MetaModelPropertyRestriction extends MetaModelObject
 	 */
 	public MetaModelProperty getMetaProperty()
 	{
-		return new MetaModelProperty( model(),
+		return wrap( MetaModelProperty.class,
 			graphDbUtil().getSingleOtherNode( node(),
 				MetaModelRelTypes.META_RESTRICTION_TO_PROPERTY,
 				Direction.OUTGOING ) );
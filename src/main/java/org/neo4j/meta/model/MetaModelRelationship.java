@@ -48,6 +48,63 @@ public class MetaModelRelationship extends MetaModelPropertyContainer
 		return MetaModelRelTypes.META_IS_SUBRELATIONSHIP_OF;
 	}
 	
+	@Override
+	MetaModelRelationship[] linearization()
+	{
+		return ( MetaModelRelationship[] ) super.linearization();
+	}
+	
+	/**
+	 * @param others other relationship types.
+	 * @return an unmodifiable collection of the relationship types which
+	 * this relationship type and all of {@code others} are, or are
+	 * (recursive) sub relationship types of.
+	 */
+	public Collection<MetaModelRelationship> getCommonSupers(
+		MetaModelRelationship... others )
+	{
+		return commonSupers( MetaModelRelationship.class, false, others );
+	}
+	
+	/**
+	 * @param others other relationship types.
+	 * @return an unmodifiable collection of the most specific of the
+	 * {@link #getCommonSupers(MetaModelRelationship...)}, i.e. the ones which
+	 * aren't supers of any other common super. With multiple inheritance
+	 * there may be more than one.
+	 */
+	public Collection<MetaModelRelationship> getLeastCommonSupers(
+		MetaModelRelationship... others )
+	{
+		return commonSupers( MetaModelRelationship.class, true, others );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelRelationship>> getAllSupers(
+		int maxDepth )
+	{
+		return allSupers( MetaModelRelationship.class, maxDepth );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelRelationship>> getAllSupers()
+	{
+		return getAllSupers( Integer.MAX_VALUE );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelRelationship>> getAllSubs(
+		int maxDepth )
+	{
+		return allSubs( MetaModelRelationship.class, maxDepth );
+	}
+	
+	@Override
+	public Iterable<HierarchyPosition<MetaModelRelationship>> getAllSubs()
+	{
+		return getAllSubs( Integer.MAX_VALUE );
+	}
+	
 	
 	
 	/**
@@ -26,7 +26,7 @@ public class MetaModelRelationshipRestriction extends MetaModelObject
 	 */
 	public MetaModelClass getMetaClass()
 	{
-		return new MetaModelClass( model(),
+		return wrap( MetaModelClass.class,
 			graphDbUtil().getSingleOtherNode( node(),
 				MetaModelRelTypes.META_RELATIONSHIP_RESTRICTION_TO_CLASS,
 				Direction.OUTGOING ) );
@@ -37,7 +37,7 @@ public class MetaModelRelationshipRestriction extends MetaModelObject
 	 */
 	public MetaModelRelationship getMetaRelationshipType()
 	{
-		return new MetaModelRelationship( model(),
+		return wrap( MetaModelRelationship.class,
 			graphDbUtil().getSingleOtherNode( node(),
 				MetaModelRelTypes.META_RESTRICTION_TO_RELATIONSHIP,
 				Direction.OUTGOING ) );
@@ -1,14 +1,15 @@
 package org.neo4j.meta.model;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.RelationshipType;
-import org.neo4j.graphdb.ReturnableEvaluator;
-import org.neo4j.graphdb.StopEvaluator;
 import org.neo4j.graphdb.Transaction;
-import org.neo4j.graphdb.Traverser;
 
 // TODO	ContainerMempership:
 //		http://www.w3.org/TR/rdf-schema/#ch_containermembershipproperty?
@@ -40,32 +41,209 @@ public abstract class MetaModelThing extends MetaModelObject
 	
 	protected abstract RelationshipType subRelationshipType();
 	
+	/**
+	 * @return the cache of effective members, f.ex. of
+	 * {@link MetaModelPropertyContainer#getAllProperties()}.
+	 */
+	MemberCache members()
+	{
+		return ( ( MetaModelImpl ) model() ).members();
+	}
+	
+	/**
+	 * @return this thing followed by all its (recursive) super things, each
+	 * one only once, in the order they should be consulted when resolving
+	 * values, see {@link Linearization}. The array is cached and shared
+	 * and must not be modified.
+	 */
+	MetaModelThing[] linearization()
+	{
+		return ( ( MetaModelImpl ) model() ).linearization( this );
+	}
+	
 	/**
 	 * @param <T> the type of {@link MetaModelThing}, should match
 	 * the type of this instance.
 	 * @param thing the {@link MetaModelThing} to check against.
 	 * @return {@code true} if this thing is a sub (class or property) of
-	 * {@code thing}.
+	 * {@code thing}, or is {@code thing}.
 	 */
 	public <T extends MetaModelThing> boolean isSubOf( T thing )
 	{
+		// Normally answered by the index of the hierarchy, without a
+		// transaction.
+		return ( ( MetaModelImpl ) model() ).isSubOf( subRelationshipType(),
+			node(), thing.node() );
+	}
+	
+	/**
+	 * @param maxDepth the max depth to return supers from, {@code 1} for
+	 * only the direct supers.
+	 * @return the (recursive) super things of this thing, nearest first,
+	 * each one once and with its depth. The hierarchy is read lazily while
+	 * iterating, so stopping early only touches what has been returned.
+	 */
+	public abstract Iterable<? extends HierarchyPosition<
+		? extends MetaModelThing>> getAllSupers( int maxDepth );
+	
+	/**
+	 * @return all the (recursive) super things of this thing, see
+	 * {@link #getAllSupers(int)}.
+	 */
+	public Iterable<? extends HierarchyPosition<? extends MetaModelThing>>
+		getAllSupers()
+	{
+		return getAllSupers( Integer.MAX_VALUE );
+	}
+	
+	/**
+	 * @param maxDepth the max depth to return subs from, {@code 1} for
+	 * only the direct subs.
+	 * @return the (recursive) sub things of this thing, nearest first,
+	 * each one once and with its depth. The hierarchy is read lazily while
+	 * iterating, so stopping early only touches what has been returned.
+	 */
+	public abstract Iterable<? extends HierarchyPosition<
+		? extends MetaModelThing>> getAllSubs( int maxDepth );
+	
+	/**
+	 * @return all the (recursive) sub things of this thing, see
+	 * {@link #getAllSubs(int)}.
+	 */
+	public Iterable<? extends HierarchyPosition<? extends MetaModelThing>>
+		getAllSubs()
+	{
+		return getAllSubs( Integer.MAX_VALUE );
+	}
+	
+	/**
+	 * @param <T> the type of {@link MetaModelThing}.
+	 * @param type the type of this thing, which the supers are wrapped as.
+	 * @param maxDepth the max depth to return supers from.
+	 * @return the (recursive) super things of this thing, see
+	 * {@link #getAllSupers(int)}.
+	 */
+	<T extends MetaModelThing> Iterable<HierarchyPosition<T>> allSupers(
+		Class<T> type, int maxDepth )
+	{
+		return new HierarchyTraverser<T>( ( MetaModelImpl ) model(), node(),
+			type, subRelationshipType(), Direction.OUTGOING, maxDepth );
+	}
+	
+	/**
+	 * @param <T> the type of {@link MetaModelThing}.
+	 * @param type the type of this thing, which the subs are wrapped as.
+	 * @param maxDepth the max depth to return subs from.
+	 * @return the (recursive) sub things of this thing, see
+	 * {@link #getAllSubs(int)}.
+	 */
+	<T extends MetaModelThing> Iterable<HierarchyPosition<T>> allSubs(
+		Class<T> type, int maxDepth )
+	{
+		return new HierarchyTraverser<T>( ( MetaModelImpl ) model(), node(),
+			type, subRelationshipType(), Direction.INCOMING, maxDepth );
+	}
+	
+	/**
+	 * The common supers of this thing and {@code others}, see f.ex.
+	 * {@link MetaModelClass#getCommonSupers(MetaModelClass...)}.
+	 * @param <T> the type of {@link MetaModelThing}.
+	 * @param type the type of this thing, which the supers are wrapped as.
+	 * @param least whether to only return the most specific of the common
+	 * supers, i.e. the ones which aren't supers of any other common super.
+	 * With multiple inheritance there may be more than one.
+	 * @param others other things of the same kind as this one.
+	 * @return an unmodifiable collection of the things which this thing and
+	 * all of {@code others} are, or are (recursive) subs of.
+	 */
+	<T extends MetaModelThing> Collection<T> commonSupers( Class<T> type,
+		boolean least, T[] others )
+	{
+		MetaModelImpl meta = ( MetaModelImpl ) model();
+		if ( meta.pendingChanges().schema() )
+		{
+			return pendingCommonSupers( type, least, others );
+		}
+		HierarchyIndex hierarchy = meta.hierarchy( subRelationshipType() );
+		long[] ids = new long[ others.length + 1 ];
+		ids[ 0 ] = node().getId();
+		for ( int i = 0; i < others.length; i++ )
+		{
+			ids[ i + 1 ] = others[ i ].node().getId();
+		}
+		
+		Transaction tx = graphDb().beginTx();
+		try
+		{
+			for ( int i = 0; i < ids.length; i++ )
+			{
+				if ( !hierarchy.contains( ids[ i ] ) && !meta.include(
+					subRelationshipType(), hierarchy,
+					i == 0 ? node() : others[ i - 1 ].node() ) )
+				{
+					tx.success();
+					return pendingCommonSupers( type, least, others );
+				}
+			}
+			long[] result = least ? hierarchy.leastCommonSupers( ids ) :
+				hierarchy.commonSupers( ids );
+			List<T> supers = new ArrayList<T>( result.length );
+			for ( long id : result )
+			{
+				supers.add( wrap( type, graphDb().getNodeById( id ) ) );
+			}
+			tx.success();
+			return new MemberSet<T>( supers );
+		}
+		finally
+		{
+			tx.finish();
+		}
+	}
+	
+	/**
+	 * The common supers as seen by a transaction with pending changes,
+	 * which mustn't add its view of the hierarchy to the shared index, or
+	 * when the things couldn't be added to it, see
+	 * {@link MetaModelImpl#include(RelationshipType, HierarchyIndex, Node)}.
+	 */
+	private <T extends MetaModelThing> Collection<T> pendingCommonSupers(
+		Class<T> type, boolean least, T[] others )
+	{
+		MetaModelImpl meta = ( MetaModelImpl ) model();
+		RelationshipType subType = subRelationshipType();
+		Set<Long> common = new HashSet<Long>( meta.supers( subType, node() ) );
+		for ( T other : others )
+		{
+			common.retainAll( meta.supers( subType, other.node() ) );
+		}
+		
 		Transaction tx = graphDb().beginTx();
 		try
 		{
-			boolean found = false;
-			Node target = thing.node();
-			for ( Node node : node().traverse( Traverser.Order.BREADTH_FIRST,
-				StopEvaluator.END_OF_GRAPH, ReturnableEvaluator.ALL,
-				subRelationshipType(), Direction.OUTGOING ) )
+			if ( least )
 			{
-				if ( node.equals( target ) )
+				Set<Long> above = new HashSet<Long>();
+				for ( Long id : common )
 				{
-					found = true;
-					break;
+					for ( Long superId : meta.supers( subType,
+						graphDb().getNodeById( id ) ) )
+					{
+						if ( !superId.equals( id ) )
+						{
+							above.add( superId );
+						}
+					}
 				}
+				common.removeAll( above );
+			}
+			List<T> supers = new ArrayList<T>( common.size() );
+			for ( Long id : common )
+			{
+				supers.add( wrap( type, graphDb().getNodeById( id ) ) );
 			}
 			tx.success();
-			return found;
+			return new MemberSet<T>( supers );
 		}
 		finally
 		{
@@ -0,0 +1,499 @@
+package org.neo4j.meta.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+/**
+ * Watches transactions for changes of the meta model structure, also the
+ * ones made by other {@link MetaModel} instances or directly in the graph,
+ * and tells the {@link MetaModelImpl} which cache entries are affected when
+ * such a transaction commits or rolls back.
+ */
+class MetaModelTransactionEventHandler implements
+	TransactionEventHandler<MetaModelTransactionEventHandler.SchemaChanges>
+{
+	/**
+	 * The relationship types which make up the meta model structure.
+	 * {@link MetaModelRelTypes#META_HAS_INSTANCE} isn't one of them since
+	 * instances are added and removed all the time.
+	 */
+	private static final Set<String> STRUCTURE_TYPES = new HashSet<String>();
+	static
+	{
+		for ( MetaModelRelTypes type : MetaModelRelTypes.values() )
+		{
+			if ( type != MetaModelRelTypes.META_HAS_INSTANCE )
+			{
+				STRUCTURE_TYPES.add( type.name() );
+			}
+		}
+	}
+
+	/**
+	 * The relationship types from a namespace (or the meta model root) to
+	 * the objects which are cached by name.
+	 */
+	private static final Set<String> MEMBERSHIP_TYPES = new HashSet<String>(
+		Arrays.asList( MetaModelRelTypes.META_NAMESPACE.name(),
+			MetaModelRelTypes.META_CLASS.name(),
+			MetaModelRelTypes.META_PROPERTY.name(),
+			MetaModelRelTypes.META_RELATIONSHIP.name() ) );
+
+	/**
+	 * The relationship types from a thing to its direct supers.
+	 */
+	static final Set<String> HIERARCHY_TYPES = new HashSet<String>(
+		Arrays.asList( MetaModelRelTypes.META_IS_SUBCLASS_OF.name(),
+			MetaModelRelTypes.META_IS_SUBPROPERTY_OF.name(),
+			MetaModelRelTypes.META_IS_SUBRELATIONSHIP_OF.name() ) );
+
+	/**
+	 * The relationship types from a restriction to its container.
+	 */
+	private static final Set<String> RESTRICTION_TYPES = new HashSet<String>(
+		Arrays.asList( MetaModelRelTypes.
+			META_PROPERTY_RESTRICTION_TO_PROPERTYCONTAINER.name(),
+			MetaModelRelTypes.META_RELATIONSHIP_RESTRICTION_TO_CLASS.name() ) );
+
+	/**
+	 * The relationship types from a restriction to what it restricts.
+	 */
+	private static final Set<String> RESTRICTION_TARGET_TYPES =
+		new HashSet<String>( Arrays.asList(
+			MetaModelRelTypes.META_RESTRICTION_TO_PROPERTY.name(),
+			MetaModelRelTypes.META_RESTRICTION_TO_RELATIONSHIP.name() ) );
+
+	/**
+	 * The node property keys which the meta model reads its structure from.
+	 */
+	private static final Set<String> STRUCTURE_KEYS = new HashSet<String>(
+		Arrays.asList( MetaModelObject.KEY_NAME,
+			MetaModelObject.KEY_MIN_CARDINALITY,
+			MetaModelObject.KEY_MAX_CARDINALITY,
+			MetaModelObject.KEY_COLLECTION_CLASS,
+			MetaModelObject.KEY_FUNCTIONALITY,
+			MetaModelProperty.INDEXING_MODE,
+			Range.KEY_RANGE_IMPL,
+			SimpleStringPropertyRange.KEY_RANGE_SPEC,
+			DataRange.KEY_DATA_ARRAY,
+			ResourceRange.KEY_RESOURCE_ID ) );
+
+	private final MetaModelImpl model;
+
+	MetaModelTransactionEventHandler( MetaModelImpl model )
+	{
+		this.model = model;
+	}
+
+	public SchemaChanges beforeCommit( TransactionData data ) throws Exception
+	{
+		// Nothing is read from the caches from here on in this transaction.
+		model.pendingChanges().finished();
+		SchemaChanges changes = new SchemaChanges();
+		for ( Relationship relationship : data.createdRelationships() )
+		{
+			changes.relationship( relationship, true );
+		}
+		for ( Relationship relationship : data.deletedRelationships() )
+		{
+			changes.relationship( relationship, false );
+		}
+		Set<Long> deleted = new HashSet<Long>();
+		for ( Node node : data.deletedNodes() )
+		{
+			deleted.add( node.getId() );
+		}
+		for ( PropertyEntry<Node> entry : data.assignedNodeProperties() )
+		{
+			changes.property( entry );
+			if ( !deleted.contains( entry.entity().getId() ) )
+			{
+				changes.renamed( entry );
+			}
+		}
+		for ( PropertyEntry<Node> entry : data.removedNodeProperties() )
+		{
+			changes.property( entry );
+		}
+		for ( Long nodeId : deleted )
+		{
+			changes.deleted( nodeId );
+		}
+		model.typeCodes().beforeCommit( changes );
+		if ( changes.hierarchyChanged() )
+		{
+			model.hierarchyCommitting();
+		}
+		return changes.isEmpty() ? null : changes;
+	}
+
+	public void afterCommit( TransactionData data, SchemaChanges changes )
+	{
+		if ( changes != null )
+		{
+			model.schemaCommitted( changes );
+		}
+	}
+
+	public void afterRollback( TransactionData data, SchemaChanges changes )
+	{
+		model.pendingChanges().finished();
+		// Things may have been cached from the state of the rolled back
+		// transaction, so it has to be evicted just like after a commit.
+		if ( changes != null )
+		{
+			model.schemaRolledBack( changes );
+		}
+	}
+
+	/**
+	 * A hierarchy relationship which was created or deleted.
+	 */
+	static class HierarchyEdge
+	{
+		final String typeName;
+		final long subId;
+		final long superId;
+		final boolean created;
+
+		HierarchyEdge( String typeName, long subId, long superId,
+			boolean created )
+		{
+			this.typeName = typeName;
+			this.subId = subId;
+			this.superId = superId;
+			this.created = created;
+		}
+	}
+
+	/**
+	 * A name of an object in a namespace (or of a namespace).
+	 */
+	static class Name
+	{
+		final long containerId;
+		final String kindName;
+		final String name;
+		final Node node;
+
+		Name( long containerId, String kindName, String name, Node node )
+		{
+			this.containerId = containerId;
+			this.kindName = kindName;
+			this.name = name;
+			this.node = node;
+		}
+	}
+
+	/**
+	 * The changes of the meta model in one transaction.
+	 */
+	static class SchemaChanges
+	{
+		private boolean structureChanged;
+		private boolean unknown;
+		private final Set<Long> nodes = new HashSet<Long>();
+		private final Set<Long> deletedNodes = new HashSet<Long>();
+		private final Set<Long> touchedNodes = new HashSet<Long>();
+		private final Set<Long> propertyNodes = new HashSet<Long>();
+		private final List<Name> names = new ArrayList<Name>();
+		private final List<HierarchyEdge> hierarchyEdges =
+			new ArrayList<HierarchyEdge>();
+		private final List<Node[]> createdRestrictions =
+			new ArrayList<Node[]>();
+		private final Set<Long> restrictionContainers = new HashSet<Long>();
+		private boolean restrictionTargetsRemoved;
+		private final Set<Long> instances = new HashSet<Long>();
+		private final Set<Long> deletedInstances = new HashSet<Long>();
+		private boolean typeCodesWritten;
+
+		private void relationship( Relationship relationship, boolean created )
+		{
+			try
+			{
+				String type = relationship.getType().name();
+				if ( type.equals( MetaModelRelTypes.META_HAS_INSTANCE.name() ) )
+				{
+					this.instances.add( relationship.getEndNode().getId() );
+					return;
+				}
+				if ( !STRUCTURE_TYPES.contains( type ) )
+				{
+					return;
+				}
+				this.structureChanged = true;
+				this.touchedNodes.add( relationship.getStartNode().getId() );
+				this.touchedNodes.add( relationship.getEndNode().getId() );
+				if ( MEMBERSHIP_TYPES.contains( type ) )
+				{
+					Node member = relationship.getEndNode();
+					this.nodes.add( member.getId() );
+					if ( created )
+					{
+						this.names.add( new Name(
+							relationship.getStartNode().getId(), type,
+							( String ) member.getProperty(
+							MetaModelObject.KEY_NAME, null ), member ) );
+					}
+				}
+				else if ( RESTRICTION_TYPES.contains( type ) )
+				{
+					if ( created )
+					{
+						this.createdRestrictions.add( new Node[] {
+							relationship.getEndNode(),
+							relationship.getStartNode() } );
+					}
+					else
+					{
+						this.restrictionContainers.add(
+							relationship.getEndNode().getId() );
+					}
+				}
+				else if ( HIERARCHY_TYPES.contains( type ) )
+				{
+					this.hierarchyEdges.add( new HierarchyEdge( type,
+						relationship.getStartNode().getId(),
+						relationship.getEndNode().getId(), created ) );
+				}
+				else if ( RESTRICTION_TARGET_TYPES.contains( type ) && !created )
+				{
+					this.restrictionTargetsRemoved = true;
+				}
+			}
+			catch ( NotFoundException e )
+			{
+				// A relationship deleted in this transaction which we can't
+				// inspect, we'll have to assume the worst.
+				this.structureChanged = true;
+				this.unknown = true;
+			}
+		}
+
+		private void renamed( PropertyEntry<Node> entry )
+		{
+			if ( !entry.key().equals( MetaModelObject.KEY_NAME ) )
+			{
+				return;
+			}
+			try
+			{
+				for ( Relationship relationship : entry.entity().
+					getRelationships( Direction.INCOMING ) )
+				{
+					String type = relationship.getType().name();
+					if ( MEMBERSHIP_TYPES.contains( type ) )
+					{
+						this.names.add( new Name(
+							relationship.getStartNode().getId(), type,
+							( String ) entry.value(), entry.entity() ) );
+					}
+				}
+			}
+			catch ( NotFoundException e )
+			{
+				// See relationship(Relationship, boolean).
+				this.structureChanged = true;
+				this.unknown = true;
+			}
+		}
+
+		/**
+		 * Records a deleted node if it was part of the meta model, i.e. if
+		 * it had structure relationships or properties. Other nodes don't
+		 * affect any cache, except the type codes of deleted instances
+		 * which are covered by {@link #instances()}.
+		 */
+		private void deleted( Long nodeId )
+		{
+			if ( this.touchedNodes.contains( nodeId ) ||
+				this.propertyNodes.contains( nodeId ) )
+			{
+				this.nodes.add( nodeId );
+				this.deletedNodes.add( nodeId );
+			}
+			else if ( this.instances.contains( nodeId ) )
+			{
+				this.deletedInstances.add( nodeId );
+			}
+		}
+
+		private void property( PropertyEntry<Node> entry )
+		{
+			if ( TypeCodes.KEYS.contains( entry.key() ) )
+			{
+				this.typeCodesWritten = true;
+			}
+			else if ( STRUCTURE_KEYS.contains( entry.key() ) )
+			{
+				this.structureChanged = true;
+				this.propertyNodes.add( entry.entity().getId() );
+				if ( entry.key().equals( MetaModelObject.KEY_NAME ) )
+				{
+					this.nodes.add( entry.entity().getId() );
+				}
+			}
+		}
+
+		private boolean isEmpty()
+		{
+			return onlyInstances() && this.instances.isEmpty() &&
+				!this.typeCodesWritten;
+		}
+
+		/**
+		 * @return {@code true} if nothing but instances (and their type
+		 * codes) changed, i.e. the meta model itself is unaffected.
+		 */
+		boolean onlyInstances()
+		{
+			return !this.structureChanged && this.nodes.isEmpty();
+		}
+
+		/**
+		 * @return whether or not the structure of the meta model changed,
+		 * i.e. if derived information, f.ex. lookups, could be affected.
+		 */
+		boolean structureChanged()
+		{
+			return this.structureChanged;
+		}
+
+		/**
+		 * @return {@code true} if the changes couldn't be fully inspected so
+		 * that every cached object must be considered affected.
+		 */
+		boolean unknown()
+		{
+			return this.unknown;
+		}
+
+		/**
+		 * @return the ids of the nodes which were deleted or renamed, or
+		 * were added to or removed from a namespace.
+		 */
+		Set<Long> nodes()
+		{
+			return this.nodes;
+		}
+
+		/**
+		 * @return the names which were given to objects in a namespace,
+		 * either by creating or renaming them.
+		 */
+		List<Name> names()
+		{
+			return this.names;
+		}
+
+		/**
+		 * @return the hierarchy relationships which were created or
+		 * deleted. A relationship may have been replaced by another one
+		 * between the same nodes, so deletions must be applied first.
+		 */
+		List<HierarchyEdge> hierarchyEdges()
+		{
+			return this.hierarchyEdges;
+		}
+
+		/**
+		 * @return whether or not any hierarchy relationship may have been
+		 * created or deleted.
+		 */
+		boolean hierarchyChanged()
+		{
+			return this.unknown || !this.hierarchyEdges.isEmpty();
+		}
+
+		/**
+		 * @return whether or not any subclass relationship was created or
+		 * deleted.
+		 */
+		boolean classHierarchyChanged()
+		{
+			for ( HierarchyEdge edge : this.hierarchyEdges )
+			{
+				if ( edge.typeName.equals(
+					MetaModelRelTypes.META_IS_SUBCLASS_OF.name() ) )
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return the ids of the nodes which had structure relationships
+		 * created or deleted.
+		 */
+		Set<Long> touchedNodes()
+		{
+			return this.touchedNodes;
+		}
+
+		/**
+		 * @return the ids of the nodes of the meta model which were
+		 * deleted.
+		 */
+		Set<Long> deletedNodes()
+		{
+			return this.deletedNodes;
+		}
+
+		/**
+		 * @return the restrictions which were added to a container, as
+		 * pairs of container and restriction nodes.
+		 */
+		List<Node[]> createdRestrictions()
+		{
+			return this.createdRestrictions;
+		}
+
+		/**
+		 * @return the ids of the nodes of containers which had restrictions
+		 * removed.
+		 */
+		Set<Long> restrictionContainers()
+		{
+			return this.restrictionContainers;
+		}
+
+		/**
+		 * @return whether or not any restriction was detached from the
+		 * property or relationship type it restricts.
+		 */
+		boolean restrictionTargetsRemoved()
+		{
+			return this.restrictionTargetsRemoved;
+		}
+
+		/**
+		 * @return the ids of the nodes which were added to or removed from
+		 * a class.
+		 */
+		Set<Long> instances()
+		{
+			return this.instances;
+		}
+
+		/**
+		 * @return the ids of the instances (see {@link #instances()}) which
+		 * were deleted.
+		 */
+		Set<Long> deletedInstances()
+		{
+			return this.deletedInstances;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package org.neo4j.meta.model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over the names of the objects of one kind in a namespace.
+ * If {@link #mightContain(String)} returns {@code false} there's definitely
+ * no such name, so lookups of names which don't exist can be answered
+ * without touching the graph. Names can't be removed, a removed name is
+ * just a false positive.
+ */
+class NameFilter
+{
+	private static final int BITS_PER_NAME = 10;
+	private static final int HASHES = 4;
+	private static final int MIN_CAPACITY = 256;
+
+	private final AtomicLongArray bits;
+	private final int size;
+	private final int capacity;
+	private final AtomicInteger count = new AtomicInteger();
+	private volatile boolean ready;
+
+	/**
+	 * @param initialNames the number of names which will be added right
+	 * away, the filter gets room for about as many more.
+	 */
+	NameFilter( int initialNames )
+	{
+		this.capacity = Math.max( initialNames * 2, MIN_CAPACITY );
+		this.size = this.capacity * BITS_PER_NAME;
+		this.bits = new AtomicLongArray( ( this.size + 63 ) / 64 );
+	}
+
+	void add( String nameOrNull )
+	{
+		int hash = hash( nameOrNull );
+		int step = step( hash );
+		for ( int i = 0; i < HASHES; i++ )
+		{
+			int bit = index( hash + i * step );
+			int word = bit >>> 6;
+			long mask = 1L << ( bit & 63 );
+			long value;
+			do
+			{
+				value = this.bits.get( word );
+			}
+			while ( ( value & mask ) == 0 &&
+				!this.bits.compareAndSet( word, value, value | mask ) );
+		}
+		this.count.incrementAndGet();
+	}
+
+	/**
+	 * @return {@code false} if {@code nameOrNull} definitely hasn't been
+	 * added, {@code true} if it might have been.
+	 */
+	boolean mightContain( String nameOrNull )
+	{
+		int hash = hash( nameOrNull );
+		int step = step( hash );
+		for ( int i = 0; i < HASHES; i++ )
+		{
+			int bit = index( hash + i * step );
+			if ( ( this.bits.get( bit >>> 6 ) & ( 1L << ( bit & 63 ) ) ) == 0 )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Marks the filter as containing all existing names. Until then names
+	 * may be missing from it and it mustn't be used to rule names out.
+	 */
+	void setReady()
+	{
+		this.ready = true;
+	}
+
+	boolean isReady()
+	{
+		return this.ready;
+	}
+
+	/**
+	 * @return the number of names which have been added.
+	 */
+	int count()
+	{
+		return this.count.get();
+	}
+
+	/**
+	 * @return whether or not so many names have been added that the rate
+	 * of false positives is getting high, so that the filter should be
+	 * rebuilt with a larger capacity.
+	 */
+	boolean isFull()
+	{
+		return this.count.get() > this.capacity;
+	}
+
+	private int index( int hash )
+	{
+		return ( hash & 0x7fffffff ) % this.size;
+	}
+
+	private static int hash( String nameOrNull )
+	{
+		return nameOrNull == null ? 0 : nameOrNull.hashCode();
+	}
+
+	private static int step( int hash )
+	{
+		// A second hash for double hashing, made odd so it's never zero.
+		int step = hash * 0x9e3779b9;
+		return ( step ^ ( step >>> 16 ) ) | 1;
+	}
+}
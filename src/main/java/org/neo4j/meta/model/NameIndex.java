@@ -0,0 +1,336 @@
+package org.neo4j.meta.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.index.IndexService;
+
+/**
+ * Indexes the meta model objects by their qualified name, i.e. the node of
+ * the namespace (or meta model root) they're in, their kind (the
+ * relationship type from the container to them) and their name. As opposed
+ * to the global {@link MetaModelObject#KEY_NAME} index the same name can
+ * be used for different kinds of objects and in different namespaces.
+ *
+ * Stores created before this index existed must be backfilled, see
+ * {@link MetaModelImpl#backfillQualifiedNames(int)}, until then lookups
+ * will fall back to scanning.
+ *
+ * There's also a {@link NameFilter} per namespace and kind, built from the
+ * graph the first time it's needed and then given every name which is
+ * committed, so that lookups of names which don't exist can be answered
+ * without probing the index. A transaction with pending meta model changes
+ * neither builds nor uses the filters, since its own names aren't in them
+ * and a filter built from its view of the graph would lack names it has
+ * removed, which come back if it's rolled back.
+ */
+class NameIndex
+{
+	/**
+	 * The index key of the qualified names.
+	 */
+	static final String KEY_QUALIFIED_NAME = "meta_model_qualified_name";
+
+	/**
+	 * Set on the meta model root node when all its objects are indexed.
+	 */
+	static final String KEY_COMPLETE = "meta_model_qualified_names_complete";
+
+	private static final RelationshipType[] NAMESPACE_KINDS = {
+		MetaModelRelTypes.META_CLASS, MetaModelRelTypes.META_PROPERTY,
+		MetaModelRelTypes.META_RELATIONSHIP };
+
+	private final MetaModelImpl model;
+	private volatile boolean complete;
+	private final Map<String, NameFilter> filters =
+		new ConcurrentHashMap<String, NameFilter>();
+
+	NameIndex( MetaModelImpl model )
+	{
+		this.model = model;
+	}
+
+	private IndexService indexService()
+	{
+		return model.indexService();
+	}
+
+	static String key( Node container, RelationshipType kind, String name )
+	{
+		return key( container.getId(), kind.name(), name );
+	}
+
+	static String key( long containerId, String kindName, String name )
+	{
+		String key = containerId + "/" + kindName;
+		return name == null ? key : key + "/" + name;
+	}
+
+	/**
+	 * @param container the node of the namespace (or meta model root).
+	 * @param kind the relationship type from the container to the object.
+	 * @param nameOrNull the name of the object, {@code null} for the global
+	 * namespace.
+	 * @return the node of the object or {@code null} if there's none.
+	 */
+	Node get( Node container, RelationshipType kind, String nameOrNull )
+	{
+		return indexService().getSingleNode( KEY_QUALIFIED_NAME,
+			key( container, kind, nameOrNull ) );
+	}
+
+	void index( Node node, Node container, RelationshipType kind,
+		String nameOrNull )
+	{
+		indexService().index( node, KEY_QUALIFIED_NAME,
+			key( container, kind, nameOrNull ) );
+	}
+
+	/**
+	 * Must be called within a transaction.
+	 * @param container the node of the namespace (or meta model root).
+	 * @param kind the relationship type from the container to the object.
+	 * @param nameOrNull the name of the object, {@code null} for the global
+	 * namespace.
+	 * @return {@code false} if there definitely is no such object,
+	 * {@code true} if there might be one.
+	 */
+	boolean mightExist( Node container, RelationshipType kind,
+		String nameOrNull )
+	{
+		if ( model.pendingChanges().schema() )
+		{
+			return true;
+		}
+		NameFilter filter = filter( container, kind );
+		return filter == null || filter.mightContain( nameOrNull );
+	}
+
+	/**
+	 * Adds a name to the filter of its namespace and kind, if it has been
+	 * built. Called for all names which are committed, also by other
+	 * {@link MetaModel} instances.
+	 */
+	synchronized void added( long containerId, String kindName,
+		String nameOrNull )
+	{
+		NameFilter filter = this.filters.get( containerId + "/" + kindName );
+		if ( filter != null )
+		{
+			filter.add( nameOrNull );
+		}
+	}
+
+	/**
+	 * Discards all filters, they will be rebuilt when needed.
+	 */
+	synchronized void clearFilters()
+	{
+		this.filters.clear();
+	}
+
+	/**
+	 * @return the filter of the names of kind {@code kind} in
+	 * {@code container}, or {@code null} if it's being built by another
+	 * thread.
+	 */
+	private NameFilter filter( Node container, RelationshipType kind )
+	{
+		String filterKey = key( container, kind, null );
+		NameFilter filter = this.filters.get( filterKey );
+		if ( filter == null || filter.isFull() )
+		{
+			synchronized ( this )
+			{
+				filter = this.filters.get( filterKey );
+				if ( filter == null || filter.isFull() )
+				{
+					// Installed before scanning so that names added
+					// meanwhile end up in it too.
+					filter = new NameFilter(
+						filter != null ? filter.count() : 0 );
+					this.filters.put( filterKey, filter );
+				}
+				else
+				{
+					return filter.isReady() ? filter : null;
+				}
+			}
+			boolean built = false;
+			try
+			{
+				for ( Relationship rel : container.getRelationships( kind,
+					Direction.OUTGOING ) )
+				{
+					filter.add( ( String ) rel.getEndNode().getProperty(
+						MetaModelObject.KEY_NAME, null ) );
+				}
+				filter.setReady();
+				built = true;
+			}
+			finally
+			{
+				if ( !built )
+				{
+					// Or it would never become ready.
+					removeFilter( filterKey, filter );
+				}
+			}
+		}
+		return filter.isReady() ? filter : null;
+	}
+
+	private synchronized void removeFilter( String filterKey,
+		NameFilter filter )
+	{
+		if ( this.filters.get( filterKey ) == filter )
+		{
+			this.filters.remove( filterKey );
+		}
+	}
+
+	void remove( Node node, Node container, RelationshipType kind,
+		String nameOrNull )
+	{
+		indexService().removeIndex( node, KEY_QUALIFIED_NAME,
+			key( container, kind, nameOrNull ) );
+	}
+
+	/**
+	 * Must be called within a transaction. Only reads the graph, stores
+	 * are marked as complete by {@link #creating(Node, RelationshipType)}
+	 * and {@link #backfill(int)}.
+	 * @return whether or not all the objects in the meta model are indexed,
+	 * if not lookups which miss must fall back to scanning.
+	 */
+	boolean isComplete()
+	{
+		if ( !this.complete )
+		{
+			Node root = model.rootNode();
+			if ( root.hasProperty( KEY_COMPLETE ) )
+			{
+				this.complete = true;
+			}
+			else
+			{
+				// An empty meta model has nothing which isn't indexed.
+				return !hasNamespaces( root );
+			}
+		}
+		return this.complete;
+	}
+
+	/**
+	 * Called within the transaction which creates an object through the
+	 * meta model, before it's added to its container. Marks the meta model
+	 * as complete when its first namespace is created, since everything
+	 * created from then on is indexed.
+	 * @param container the node of the namespace (or meta model root).
+	 * @param kind the relationship type from the container to the object.
+	 */
+	void creating( Node container, RelationshipType kind )
+	{
+		if ( this.complete || !kind.name().equals(
+			MetaModelRelTypes.META_NAMESPACE.name() ) )
+		{
+			return;
+		}
+		Node root = model.rootNode();
+		if ( !root.hasProperty( KEY_COMPLETE ) && !hasNamespaces( root ) )
+		{
+			root.setProperty( KEY_COMPLETE, true );
+		}
+	}
+
+	private static boolean hasNamespaces( Node root )
+	{
+		return root.hasRelationship( MetaModelRelTypes.META_NAMESPACE,
+			Direction.OUTGOING );
+	}
+
+	/**
+	 * Indexes all the namespaces, classes, properties and relationship types
+	 * which aren't indexed already, committing every {@code batchSize}
+	 * objects so that large stores can be backfilled without one huge
+	 * transaction. Can be run again if interrupted.
+	 * @param batchSize the max number of objects to index per transaction.
+	 * @return the number of objects which were indexed.
+	 */
+	int backfill( int batchSize )
+	{
+		if ( batchSize < 1 )
+		{
+			throw new IllegalArgumentException( "Invalid batch size " +
+				batchSize );
+		}
+
+		int count = 0;
+		Batch batch = new Batch( batchSize );
+		try
+		{
+			Node root = model.rootNode();
+			for ( Relationship rel : root.getRelationships(
+				MetaModelRelTypes.META_NAMESPACE, Direction.OUTGOING ) )
+			{
+				Node namespace = rel.getEndNode();
+				count += batch.index( namespace, root,
+					MetaModelRelTypes.META_NAMESPACE );
+				for ( RelationshipType kind : NAMESPACE_KINDS )
+				{
+					for ( Relationship member : namespace.getRelationships(
+						kind, Direction.OUTGOING ) )
+					{
+						count += batch.index( member.getEndNode(), namespace,
+							kind );
+					}
+				}
+			}
+			root.setProperty( KEY_COMPLETE, true );
+			batch.tx.success();
+		}
+		finally
+		{
+			batch.tx.finish();
+		}
+		this.complete = true;
+		return count;
+	}
+
+	private class Batch
+	{
+		private final int size;
+		private Transaction tx;
+		private int inTx;
+
+		Batch( int size )
+		{
+			this.size = size;
+			this.tx = model.graphDb().beginTx();
+		}
+
+		int index( Node node, Node container, RelationshipType kind )
+		{
+			String name = ( String ) node.getProperty(
+				MetaModelObject.KEY_NAME, null );
+			if ( node.equals( get( container, kind, name ) ) )
+			{
+				return 0;
+			}
+			NameIndex.this.index( node, container, kind, name );
+			if ( ++this.inTx >= this.size )
+			{
+				this.tx.success();
+				this.tx.finish();
+				this.tx = model.graphDb().beginTx();
+				this.inTx = 0;
+			}
+			return 1;
+		}
+	}
+}
@@ -4,6 +4,7 @@ import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.util.RelationshipSet;
 
 class ObjectCollection<T extends MetaModelObject>
@@ -11,6 +12,9 @@ class ObjectCollection<T extends MetaModelObject>
 {
 	private MetaModel model;
 	private Class<T> cls;
+	private Node node;
+	private RelationshipType relType;
+	private Direction direction;
 	
 	ObjectCollection( Node node,
 		RelationshipType relType, Direction direction,
@@ -19,6 +23,9 @@ class ObjectCollection<T extends MetaModelObject>
 		super( node, relType, direction );
 		this.model = model;
 		this.cls = cls;
+		this.node = node;
+		this.relType = relType;
+		this.direction = direction;
 	}
 	
 	protected MetaModel model()
@@ -26,26 +33,81 @@ class ObjectCollection<T extends MetaModelObject>
 		return this.model;
 	}
 	
-	@Override
-	protected Node getNodeFromItem( Object item )
+	/**
+	 * @return the node which the items in this collection belongs to.
+	 */
+	Node container()
 	{
-		return ( ( MetaModelObject ) item ).node();
+		return this.node;
+	}
+	
+	/**
+	 * @return the relationship type from the container to the items.
+	 */
+	RelationshipType kind()
+	{
+		return this.relType;
 	}
 	
 	@Override
-	protected T newObject( Node node, Relationship rel )
+	public boolean add( T item )
 	{
+		// One transaction, so that the changes are reported as pending
+		// before it's committed.
+		MetaModelImpl meta = ( MetaModelImpl ) model();
+		Transaction tx = meta.graphDb().beginTx();
 		try
 		{
-			return cls.getConstructor( MetaModel.class,
-				Node.class ).newInstance( model(), node );
+			boolean hierarchy = MetaModelTransactionEventHandler.
+				HIERARCHY_TYPES.contains( this.relType.name() );
+			if ( hierarchy )
+			{
+				Node itemNode = getNodeFromItem( item );
+				meta.checkHierarchyAdd( this.relType,
+					this.direction == Direction.OUTGOING ? this.node : itemNode,
+					this.direction == Direction.OUTGOING ? itemNode : this.node );
+			}
+			boolean added = super.add( item );
+			if ( added )
+			{
+				meta.schemaChanged();
+				long itemId = getNodeFromItem( item ).getId();
+				meta.relationshipChanged( this.node.getId(), itemId );
+				if ( hierarchy )
+				{
+					if ( this.direction == Direction.OUTGOING )
+					{
+						meta.hierarchyEdited( this.relType.name(),
+							this.node.getId(), itemId, true );
+					}
+					else
+					{
+						meta.hierarchyEdited( this.relType.name(), itemId,
+							this.node.getId(), true );
+					}
+				}
+			}
+			tx.success();
+			return added;
 		}
-		catch ( Exception e )
+		finally
 		{
-			throw new RuntimeException( e );
+			tx.finish();
 		}
 	}
 	
+	@Override
+	protected Node getNodeFromItem( Object item )
+	{
+		return ( ( MetaModelObject ) item ).node();
+	}
+	
+	@Override
+	protected T newObject( Node node, Relationship rel )
+	{
+		return ( ( MetaModelImpl ) model() ).wrap( cls, node );
+	}
+	
 	@Override
 	protected void removeItem( Relationship rel )
 	{
@@ -0,0 +1,140 @@
+package org.neo4j.meta.model;
+
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.graphdb.Node;
+
+/**
+ * Creates the {@link MetaModelObject} wrapping a node, one factory per
+ * type. The types of this package have factories which simply call their
+ * constructors, other types get one which uses reflection, although the
+ * constructor is only looked up once.
+ *
+ * @param <T> the type of objects to create.
+ */
+abstract class ObjectFactory<T extends MetaModelObject>
+{
+	private static final Map<Class<?>, ObjectFactory<?>> FACTORIES =
+		new ConcurrentHashMap<Class<?>, ObjectFactory<?>>();
+	static
+	{
+		register( MetaModelNamespace.class,
+			new ObjectFactory<MetaModelNamespace>()
+		{
+			@Override
+			MetaModelNamespace newObject( MetaModel model, Node node )
+			{
+				return new MetaModelNamespace( model, node );
+			}
+		} );
+		register( MetaModelClass.class, new ObjectFactory<MetaModelClass>()
+		{
+			@Override
+			MetaModelClass newObject( MetaModel model, Node node )
+			{
+				return new MetaModelClass( model, node );
+			}
+		} );
+		register( MetaModelProperty.class,
+			new ObjectFactory<MetaModelProperty>()
+		{
+			@Override
+			MetaModelProperty newObject( MetaModel model, Node node )
+			{
+				return new MetaModelProperty( model, node );
+			}
+		} );
+		register( MetaModelRelationship.class,
+			new ObjectFactory<MetaModelRelationship>()
+		{
+			@Override
+			MetaModelRelationship newObject( MetaModel model, Node node )
+			{
+				return new MetaModelRelationship( model, node );
+			}
+		} );
+		register( MetaModelPropertyRestriction.class,
+			new ObjectFactory<MetaModelPropertyRestriction>()
+		{
+			@Override
+			MetaModelPropertyRestriction newObject( MetaModel model, Node node )
+			{
+				return new MetaModelPropertyRestriction( model, node );
+			}
+		} );
+		register( MetaModelRelationshipRestriction.class,
+			new ObjectFactory<MetaModelRelationshipRestriction>()
+		{
+			@Override
+			MetaModelRelationshipRestriction newObject( MetaModel model,
+				Node node )
+			{
+				return new MetaModelRelationshipRestriction( model, node );
+			}
+		} );
+	}
+
+	private static <T extends MetaModelObject> void register( Class<T> cls,
+		ObjectFactory<T> factory )
+	{
+		FACTORIES.put( cls, factory );
+	}
+
+	/**
+	 * @param cls the type of objects to create.
+	 * @return the factory for {@code cls}.
+	 */
+	@SuppressWarnings( "unchecked" )
+	static <T extends MetaModelObject> ObjectFactory<T> forClass(
+		Class<T> cls )
+	{
+		ObjectFactory<T> factory = ( ObjectFactory<T> ) FACTORIES.get( cls );
+		if ( factory == null )
+		{
+			factory = new ReflectionFactory<T>( cls );
+			register( cls, factory );
+		}
+		return factory;
+	}
+
+	/**
+	 * @param model the {@link MetaModel} instance.
+	 * @param node the {@link Node} to wrap.
+	 * @return a new object wrapping {@code node}.
+	 */
+	abstract T newObject( MetaModel model, Node node );
+
+	private static class ReflectionFactory<T extends MetaModelObject>
+		extends ObjectFactory<T>
+	{
+		private final Constructor<T> constructor;
+
+		ReflectionFactory( Class<T> cls )
+		{
+			try
+			{
+				this.constructor = cls.getConstructor( MetaModel.class,
+					Node.class );
+			}
+			catch ( NoSuchMethodException e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+
+		@Override
+		T newObject( MetaModel model, Node node )
+		{
+			try
+			{
+				return this.constructor.newInstance( model, node );
+			}
+			catch ( Exception e )
+			{
+				throw new RuntimeException( e );
+			}
+		}
+	}
+}
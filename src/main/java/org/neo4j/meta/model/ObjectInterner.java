@@ -0,0 +1,138 @@
+package org.neo4j.meta.model;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.neo4j.graphdb.Node;
+
+/**
+ * Keeps one canonical {@link MetaModelObject} per node and type, so that
+ * traversals hand out the same wrapper instead of allocating a new one for
+ * every visit. The wrappers are only weakly referenced, so ones which
+ * nobody uses anymore are garbage collected, and are evicted when their
+ * nodes are deleted.
+ */
+class ObjectInterner
+{
+	private final MetaModel model;
+	private final ConcurrentMap<Key, ObjectReference> objects =
+		new ConcurrentHashMap<Key, ObjectReference>();
+	private final ReferenceQueue<MetaModelObject> collected =
+		new ReferenceQueue<MetaModelObject>();
+
+	ObjectInterner( MetaModel model )
+	{
+		this.model = model;
+	}
+
+	/**
+	 * @param type the type of the wrapper.
+	 * @param node the node to wrap.
+	 * @return the canonical wrapper of {@code node} with type {@code type}.
+	 */
+	<T extends MetaModelObject> T intern( Class<T> type, Node node )
+	{
+		expungeCollected();
+		Key key = new Key( type, node.getId() );
+		while ( true )
+		{
+			ObjectReference reference = this.objects.get( key );
+			MetaModelObject existing = reference != null ?
+				reference.get() : null;
+			if ( existing != null )
+			{
+				return type.cast( existing );
+			}
+
+			T object = ObjectFactory.forClass( type ).newObject( model, node );
+			ObjectReference newReference =
+				new ObjectReference( key, object, this.collected );
+			if ( reference == null ?
+				this.objects.putIfAbsent( key, newReference ) == null :
+				this.objects.replace( key, reference, newReference ) )
+			{
+				return object;
+			}
+			// Someone else interned one in the meantime, use that one.
+		}
+	}
+
+	/**
+	 * Removes the wrappers of the given nodes, f.ex. because the nodes
+	 * have been deleted.
+	 * @param nodeIds the ids of the nodes.
+	 */
+	void evict( Set<Long> nodeIds )
+	{
+		for ( Iterator<Key> keys = this.objects.keySet().iterator();
+			keys.hasNext(); )
+		{
+			if ( nodeIds.contains( keys.next().nodeId ) )
+			{
+				keys.remove();
+			}
+		}
+	}
+
+	void clear()
+	{
+		this.objects.clear();
+	}
+
+	private void expungeCollected()
+	{
+		Reference<? extends MetaModelObject> reference;
+		while ( ( reference = this.collected.poll() ) != null )
+		{
+			ObjectReference objectReference = ( ObjectReference ) reference;
+			this.objects.remove( objectReference.key, objectReference );
+		}
+	}
+
+	private static class ObjectReference extends WeakReference<MetaModelObject>
+	{
+		private final Key key;
+
+		ObjectReference( Key key, MetaModelObject object,
+			ReferenceQueue<MetaModelObject> queue )
+		{
+			super( object, queue );
+			this.key = key;
+		}
+	}
+
+	private static final class Key
+	{
+		private final Class<?> type;
+		private final long nodeId;
+
+		Key( Class<?> type, long nodeId )
+		{
+			this.type = type;
+			this.nodeId = nodeId;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return ( int ) ( nodeId ^ ( nodeId >>> 32 ) ) * 31 +
+				type.hashCode();
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( !( o instanceof Key ) )
+			{
+				return false;
+			}
+			Key other = ( Key ) o;
+			return this.nodeId == other.nodeId && this.type == other.type;
+		}
+	}
+}
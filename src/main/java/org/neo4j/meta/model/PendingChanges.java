@@ -0,0 +1,186 @@
+package org.neo4j.meta.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the threads whose transaction has changed the meta model,
+ * or added or removed instances, through this meta model but hasn't been
+ * committed yet. Such a transaction sees its own changes and the other
+ * threads don't, so it must neither read nor write the shared caches:
+ * values computed from its changes may be rolled back, and the cached
+ * values don't include them.
+ *
+ * The state of a thread is dropped when its transaction is about to be
+ * committed, see {@link MetaModelTransactionEventHandler}. A transaction
+ * which is rolled back without trying to commit isn't reported by Neo4j,
+ * its thread then bypasses the caches until its next commit.
+ *
+ * The hierarchy relationships a transaction has created or deleted, and
+ * the restrictions it has created, are kept here as well, see
+ * {@link HierarchyOverlay} and {@link RestrictionOverlay}.
+ */
+class PendingChanges
+{
+	private final ThreadLocal<State> states = new ThreadLocal<State>();
+	private final AtomicInteger threads = new AtomicInteger();
+
+	private State state()
+	{
+		State state = this.states.get();
+		if ( state == null )
+		{
+			state = new State();
+			this.states.set( state );
+			this.threads.incrementAndGet();
+		}
+		return state;
+	}
+
+	private State stateOrNull()
+	{
+		// Saves the thread local lookup when no thread has any changes.
+		return this.threads.get() == 0 ? null : this.states.get();
+	}
+
+	/**
+	 * Called when the current transaction has changed the meta model.
+	 */
+	void schemaChanged()
+	{
+		state().schema = true;
+	}
+
+	/**
+	 * Called when the current transaction has created or deleted a
+	 * hierarchy relationship.
+	 * @param typeName the name of the relationship type.
+	 * @param subId the id of the start node, the sub.
+	 * @param superId the id of the end node, the super.
+	 * @param created whether it was created or deleted.
+	 */
+	void hierarchyChanged( String typeName, long subId, long superId,
+		boolean created )
+	{
+		State state = state();
+		state.schema = true;
+		HierarchyOverlay overlay = state.hierarchies.get( typeName );
+		if ( overlay == null )
+		{
+			overlay = new HierarchyOverlay();
+			state.hierarchies.put( typeName, overlay );
+		}
+		if ( created )
+		{
+			overlay.added( subId, superId );
+		}
+		else
+		{
+			overlay.removed( subId, superId );
+		}
+	}
+
+	/**
+	 * @param typeName the name of the relationship type of a hierarchy.
+	 * @return the relationships of that hierarchy which the current
+	 * transaction has created or deleted, or {@code null} if none.
+	 */
+	HierarchyOverlay hierarchy( String typeName )
+	{
+		State state = stateOrNull();
+		return state != null ? state.hierarchies.get( typeName ) : null;
+	}
+
+	/**
+	 * Must only be called when the current transaction has changed the
+	 * meta model, see {@link #schema()}.
+	 * @param containerId the id of the node of a property container.
+	 * @return the restrictions of that container as seen by the current
+	 * transaction.
+	 */
+	RestrictionOverlay restrictions( long containerId )
+	{
+		State state = state();
+		RestrictionOverlay overlay = state.restrictions.get( containerId );
+		if ( overlay == null )
+		{
+			overlay = new RestrictionOverlay();
+			state.restrictions.put( containerId, overlay );
+		}
+		return overlay;
+	}
+
+	/**
+	 * Called when the current transaction has deleted restrictions, so
+	 * that it reads the restrictions of the containers from the graph from
+	 * now on.
+	 */
+	void restrictionsRemoved()
+	{
+		State state = state();
+		state.schema = true;
+		state.restrictionsRemoved = true;
+		state.restrictions.clear();
+	}
+
+	/**
+	 * @return whether or not the current transaction has deleted
+	 * restrictions.
+	 */
+	boolean removedRestrictions()
+	{
+		State state = stateOrNull();
+		return state != null && state.restrictionsRemoved;
+	}
+
+	/**
+	 * Called when the current transaction has added or removed instances.
+	 */
+	void instancesChanged()
+	{
+		state();
+	}
+
+	/**
+	 * @return whether or not the current transaction has changed the meta
+	 * model.
+	 */
+	boolean schema()
+	{
+		State state = stateOrNull();
+		return state != null && state.schema;
+	}
+
+	/**
+	 * @return whether or not the current transaction has changed the meta
+	 * model or added or removed instances.
+	 */
+	boolean any()
+	{
+		return stateOrNull() != null;
+	}
+
+	/**
+	 * Called when the current transaction is about to be committed, or
+	 * has been rolled back.
+	 */
+	void finished()
+	{
+		if ( stateOrNull() != null )
+		{
+			this.states.remove();
+			this.threads.decrementAndGet();
+		}
+	}
+
+	private static class State
+	{
+		private boolean schema;
+		private final Map<String, HierarchyOverlay> hierarchies =
+			new HashMap<String, HierarchyOverlay>();
+		private boolean restrictionsRemoved;
+		private final Map<Long, RestrictionOverlay> restrictions =
+			new HashMap<Long, RestrictionOverlay>();
+	}
+}
@@ -83,6 +83,7 @@ public abstract class PropertyRange extends Range<PropertyRange>
 			{
 				range.store( owner );
 			}
+			schemaChanged( owner.model() );
 			tx.success();
 		}
 		finally
@@ -23,6 +23,11 @@ public abstract class Range<T>
 		return ( ( MetaModelImpl ) meta ).graphDb();
 	}
 	
+	protected static void schemaChanged( MetaModel meta )
+	{
+		( ( MetaModelImpl ) meta ).schemaChanged();
+	}
+	
 	protected abstract void internalStore( MetaModelRestrictable<T> owner );
 	
 	protected abstract void internalRemove( MetaModelRestrictable<T> owner );
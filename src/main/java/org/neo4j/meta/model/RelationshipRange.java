@@ -88,6 +88,7 @@ public abstract class RelationshipRange extends Range<RelationshipRange>
 			{
 				range.store( owner );
 			}
+			schemaChanged( owner.model() );
 			tx.success();
 		}
 		finally
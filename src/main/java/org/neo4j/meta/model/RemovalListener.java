@@ -0,0 +1,19 @@
+package org.neo4j.meta.model;
+
+/**
+ * Receives the progress of a cascading removal, see
+ * {@link MetaModelNamespace#removeCascading(String, int, RemovalListener)}.
+ */
+public interface RemovalListener
+{
+	/**
+	 * Called after each committed batch of the removal.
+	 * @param name the name of the object being removed.
+	 * @param relationships the number of relationships deleted so far.
+	 * @param restrictions the number of restrictions deleted so far.
+	 * @param done whether or not the object itself has been deleted, i.e.
+	 * this is the last call for it.
+	 */
+	void progress( String name, long relationships, long restrictions,
+		boolean done );
+}
@@ -4,7 +4,7 @@ import java.text.ParseException;
 
 public class ResourceRange extends PropertyRange
 {
-    private static final String KEY_RESOURCE_ID = "resource_id";
+    static final String KEY_RESOURCE_ID = "resource_id";
     
     private String resourceId;
     
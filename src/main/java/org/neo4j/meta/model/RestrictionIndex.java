@@ -0,0 +1,165 @@
+package org.neo4j.meta.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * An in-memory index, per {@link MetaModelPropertyContainer}, from the id of
+ * the node of a {@link MetaModelProperty} (or {@link MetaModelRelationship})
+ * to the node of the container's restriction on it. The index of a container
+ * is built by one pass over its restrictions the first time it's needed and
+ * is then kept up to date as restrictions are created and removed, instead
+ * of being discarded on every schema change like the other caches.
+ *
+ * Only committed restrictions are indexed: restrictions are added to the
+ * index when their transaction has been committed, and a transaction which
+ * has pending meta model changes sees the ones it has created on top of the
+ * index, see {@link RestrictionOverlay}.
+ */
+class RestrictionIndex
+{
+	private final Map<Long, Map<Long, Node>> containers =
+		new ConcurrentHashMap<Long, Map<Long, Node>>();
+	private final PendingChanges pending;
+	// Advanced whenever restrictions are committed or indexes discarded, so
+	// that an index built concurrently with that isn't installed.
+	private volatile long version;
+
+	RestrictionIndex( PendingChanges pending )
+	{
+		this.pending = pending;
+	}
+
+	/**
+	 * @param container the node of the property container.
+	 * @param target the node of the property or relationship type.
+	 * @return the node of the restriction {@code container} has on
+	 * {@code target}, or {@code null} if there's none.
+	 */
+	Node get( Node container, Node target )
+	{
+		if ( this.pending.schema() )
+		{
+			Map<Long, Node> committed = this.pending.removedRestrictions() ?
+				null : this.containers.get( container.getId() );
+			return this.pending.restrictions( container.getId() ).get(
+				container, committed, target.getId() );
+		}
+		return forContainer( container ).get( target.getId() );
+	}
+
+	/**
+	 * Called when a restriction has been created through the meta model,
+	 * within the transaction which did it. It's added to the index when
+	 * that transaction has been committed.
+	 * @param container the node of the property container.
+	 * @param target the node of the property or relationship type.
+	 * @param restriction the node of the restriction.
+	 */
+	void created( Node container, Node target, Node restriction )
+	{
+		this.pending.restrictions( container.getId() ).created(
+			target.getId(), restriction );
+	}
+
+	private Map<Long, Node> forContainer( Node container )
+	{
+		Map<Long, Node> index = this.containers.get( container.getId() );
+		if ( index == null )
+		{
+			long versionWhenBuilt = this.version;
+			index = build( container );
+			install( container.getId(), index, versionWhenBuilt );
+		}
+		return index;
+	}
+
+	private synchronized void install( Long containerId, Map<Long, Node> index,
+		long versionWhenBuilt )
+	{
+		if ( versionWhenBuilt == this.version )
+		{
+			this.containers.put( containerId, index );
+		}
+	}
+
+	/**
+	 * Reads the restrictions of a container from the graph, as seen by the
+	 * current transaction. Must be called within a transaction.
+	 * @param container the node of the property container.
+	 * @return the restrictions of {@code container} keyed by the id of the
+	 * node of the property or relationship type they restrict.
+	 */
+	static Map<Long, Node> build( Node container )
+	{
+		Map<Long, Node> index = new ConcurrentHashMap<Long, Node>();
+		for ( Relationship rel : container.getRelationships( MetaModelRelTypes.
+			META_PROPERTY_RESTRICTION_TO_PROPERTYCONTAINER, Direction.INCOMING ) )
+		{
+			add( index, rel.getStartNode(),
+				MetaModelRelTypes.META_RESTRICTION_TO_PROPERTY );
+		}
+		for ( Relationship rel : container.getRelationships( MetaModelRelTypes.
+			META_RELATIONSHIP_RESTRICTION_TO_CLASS, Direction.INCOMING ) )
+		{
+			add( index, rel.getStartNode(),
+				MetaModelRelTypes.META_RESTRICTION_TO_RELATIONSHIP );
+		}
+		return index;
+	}
+
+	private static void add( Map<Long, Node> index, Node restriction,
+		RelationshipType toTarget )
+	{
+		Relationship rel = restriction.getSingleRelationship( toTarget,
+			Direction.OUTGOING );
+		if ( rel != null )
+		{
+			Long target = rel.getEndNode().getId();
+			if ( !index.containsKey( target ) )
+			{
+				index.put( target, restriction );
+			}
+		}
+	}
+
+	/**
+	 * Adds a committed restriction to the index of its container, if that
+	 * index has been built.
+	 * @param container the node of the property container.
+	 * @param restriction the node of the restriction.
+	 */
+	synchronized void committed( Node container, Node restriction )
+	{
+		this.version++;
+		Map<Long, Node> index = this.containers.get( container.getId() );
+		if ( index != null )
+		{
+			add( index, restriction,
+				MetaModelRelTypes.META_RESTRICTION_TO_PROPERTY );
+			add( index, restriction,
+				MetaModelRelTypes.META_RESTRICTION_TO_RELATIONSHIP );
+		}
+	}
+
+	/**
+	 * Discards the index of a container, it will be rebuilt when needed.
+	 * @param containerId the id of the node of the property container.
+	 */
+	synchronized void evict( long containerId )
+	{
+		this.version++;
+		this.containers.remove( containerId );
+	}
+
+	synchronized void clear()
+	{
+		this.version++;
+		this.containers.clear();
+	}
+}
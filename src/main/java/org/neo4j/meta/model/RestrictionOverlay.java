@@ -0,0 +1,57 @@
+package org.neo4j.meta.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.graphdb.Node;
+
+/**
+ * The restrictions of one container as seen by a transaction with pending
+ * changes: the ones it has created through the meta model on top of the
+ * committed {@link RestrictionIndex} of the container. The restrictions are
+ * read from the graph, once per transaction, if there's no committed index
+ * to go on or the transaction has removed restrictions.
+ */
+class RestrictionOverlay
+{
+	private final Map<Long, Node> created = new HashMap<Long, Node>();
+	// All the restrictions of the container, once read from the graph.
+	private Map<Long, Node> all;
+
+	void created( long targetId, Node restriction )
+	{
+		if ( this.all != null )
+		{
+			this.all.put( targetId, restriction );
+		}
+		else
+		{
+			this.created.put( targetId, restriction );
+		}
+	}
+
+	/**
+	 * Must be called within a transaction.
+	 * @param container the node of the container.
+	 * @param committed the committed index of the container, or
+	 * {@code null} if it hasn't been built or can't be used.
+	 * @param targetId the id of the node of the property or relationship
+	 * type.
+	 * @return the node of the restriction on it, or {@code null}.
+	 */
+	Node get( Node container, Map<Long, Node> committed, long targetId )
+	{
+		if ( this.all == null )
+		{
+			Node result = this.created.get( targetId );
+			if ( result != null || committed != null )
+			{
+				return result != null ? result : committed.get( targetId );
+			}
+			// Includes the ones created so far.
+			this.all = RestrictionIndex.build( container );
+			this.created.clear();
+		}
+		return this.all.get( targetId );
+	}
+}
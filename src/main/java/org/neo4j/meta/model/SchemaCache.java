@@ -0,0 +1,63 @@
+package org.neo4j.meta.model;
+
+/**
+ * A cache of information derived from the meta model structure. Entries
+ * are only valid in the {@link SchemaEpoch} they were computed in, which is
+ * advanced whenever the meta model changes, see
+ * {@link MetaModelImpl#schemaChanged()}. A hit is a map read and a read of
+ * the epoch. A transaction which has changed the meta model bypasses the
+ * cache, see {@link PendingChanges}.
+ * @param <K> the type of keys.
+ * @param <V> the type of cached values.
+ */
+class SchemaCache<K, V> extends BoundedCache<K, V>
+{
+	private final SchemaEpoch epoch;
+	private final PendingChanges pending;
+
+	SchemaCache( String name, int maxSize, SchemaEpoch epoch,
+		PendingChanges pending )
+	{
+		super( name, maxSize );
+		this.epoch = epoch;
+		this.pending = pending;
+	}
+
+	@Override
+	V get( K key )
+	{
+		return this.pending.schema() ? null : super.get( key );
+	}
+
+	/**
+	 * @return the current epoch, to be passed to
+	 * {@link #put(Object, Object, long)} when the value has been computed.
+	 */
+	long epoch()
+	{
+		return this.epoch.current();
+	}
+
+	@Override
+	protected boolean isCurrent( long stamp )
+	{
+		return stamp == this.epoch.current();
+	}
+
+	/**
+	 * Caches {@code value} for {@code key} as computed in
+	 * {@code epochWhenComputed}. If the epoch has been advanced since then
+	 * the value might be based on stale data and will never be returned.
+	 * Nothing is cached if the current transaction has changed the meta
+	 * model, since the value may be based on uncommitted changes.
+	 */
+	@Override
+	void put( K key, V value, long epochWhenComputed )
+	{
+		if ( epochWhenComputed == this.epoch.current() &&
+			!this.pending.schema() )
+		{
+			super.put( key, value, epochWhenComputed );
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package org.neo4j.meta.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A batch of class, property, relationship type, hierarchy and restriction
+ * definitions, referring to each other by name, to be created in a
+ * {@link MetaModelNamespace} in one go with
+ * {@link MetaModelNamespace#define(SchemaDefinition, int)}. This is much
+ * faster than creating the same things one at a time when loading large
+ * schemas, f.ex. ontologies.
+ *
+ * Names which are referred to but not explicitly defined (f.ex. a super
+ * class) are created as well, unless they already exist in the namespace.
+ */
+public class SchemaDefinition
+{
+	private final Set<String> classes = new LinkedHashSet<String>();
+	private final Set<String> properties = new LinkedHashSet<String>();
+	private final Set<String> relationshipTypes = new LinkedHashSet<String>();
+	private final List<String[]> superClasses = new ArrayList<String[]>();
+	private final List<String[]> superProperties = new ArrayList<String[]>();
+	private final List<String[]> superRelationshipTypes =
+		new ArrayList<String[]>();
+	private final List<Restriction> propertyRestrictions =
+		new ArrayList<Restriction>();
+	private final List<Restriction> relationshipRestrictions =
+		new ArrayList<Restriction>();
+
+	/**
+	 * Defines a class.
+	 * @param name the name of the class.
+	 * @param superClassNames the names of its direct super classes.
+	 * @return this definition.
+	 */
+	public SchemaDefinition defineClass( String name,
+		String... superClassNames )
+	{
+		define( classes, superClasses, name, superClassNames );
+		return this;
+	}
+
+	/**
+	 * Defines a property.
+	 * @param name the name of the property.
+	 * @param superPropertyNames the names of its direct super properties.
+	 * @return this definition.
+	 */
+	public SchemaDefinition defineProperty( String name,
+		String... superPropertyNames )
+	{
+		define( properties, superProperties, name, superPropertyNames );
+		return this;
+	}
+
+	/**
+	 * Defines a relationship type.
+	 * @param name the name of the relationship type.
+	 * @param superNames the names of its direct super relationship types.
+	 * @return this definition.
+	 */
+	public SchemaDefinition defineRelationshipType( String name,
+		String... superNames )
+	{
+		define( relationshipTypes, superRelationshipTypes, name, superNames );
+		return this;
+	}
+
+	private static void define( Set<String> names, List<String[]> supers,
+		String name, String[] superNames )
+	{
+		if ( name == null )
+		{
+			throw new IllegalArgumentException( "Null name" );
+		}
+		names.add( name );
+		for ( String superName : superNames )
+		{
+			names.add( superName );
+			supers.add( new String[] { name, superName } );
+		}
+	}
+
+	/**
+	 * Defines a restriction on a property for a class, see
+	 * {@link MetaModelClass#getRestriction(MetaModelProperty, boolean)}.
+	 * @param className the name of the class.
+	 * @param propertyName the name of the property.
+	 * @param minCardinality the min cardinality, or {@code null}.
+	 * @param maxCardinality the max cardinality, or {@code null}.
+	 * @return this definition.
+	 */
+	public SchemaDefinition restrictProperty( String className,
+		String propertyName, Integer minCardinality, Integer maxCardinality )
+	{
+		classes.add( className );
+		properties.add( propertyName );
+		propertyRestrictions.add( new Restriction( className, propertyName,
+			minCardinality, maxCardinality ) );
+		return this;
+	}
+
+	/**
+	 * Defines a restriction on a relationship type for a class, see
+	 * {@link MetaModelClass#getRestriction(MetaModelRelationship, boolean)}.
+	 * @param className the name of the class.
+	 * @param relationshipTypeName the name of the relationship type.
+	 * @param minCardinality the min cardinality, or {@code null}.
+	 * @param maxCardinality the max cardinality, or {@code null}.
+	 * @return this definition.
+	 */
+	public SchemaDefinition restrictRelationshipType( String className,
+		String relationshipTypeName, Integer minCardinality,
+		Integer maxCardinality )
+	{
+		classes.add( className );
+		relationshipTypes.add( relationshipTypeName );
+		relationshipRestrictions.add( new Restriction( className,
+			relationshipTypeName, minCardinality, maxCardinality ) );
+		return this;
+	}
+
+	Set<String> classes()
+	{
+		return Collections.unmodifiableSet( classes );
+	}
+
+	Set<String> properties()
+	{
+		return Collections.unmodifiableSet( properties );
+	}
+
+	Set<String> relationshipTypes()
+	{
+		return Collections.unmodifiableSet( relationshipTypes );
+	}
+
+	/**
+	 * @return pairs of sub and super class names.
+	 */
+	List<String[]> superClasses()
+	{
+		return Collections.unmodifiableList( superClasses );
+	}
+
+	/**
+	 * @return pairs of sub and super property names.
+	 */
+	List<String[]> superProperties()
+	{
+		return Collections.unmodifiableList( superProperties );
+	}
+
+	/**
+	 * @return pairs of sub and super relationship type names.
+	 */
+	List<String[]> superRelationshipTypes()
+	{
+		return Collections.unmodifiableList( superRelationshipTypes );
+	}
+
+	List<Restriction> propertyRestrictions()
+	{
+		return Collections.unmodifiableList( propertyRestrictions );
+	}
+
+	List<Restriction> relationshipRestrictions()
+	{
+		return Collections.unmodifiableList( relationshipRestrictions );
+	}
+
+	/**
+	 * A defined restriction, by the names of the class and the property
+	 * (or relationship type) it restricts.
+	 */
+	static class Restriction
+	{
+		final String className;
+		final String targetName;
+		final Integer minCardinality;
+		final Integer maxCardinality;
+
+		Restriction( String className, String targetName,
+			Integer minCardinality, Integer maxCardinality )
+		{
+			this.className = className;
+			this.targetName = targetName;
+			this.minCardinality = minCardinality;
+			this.maxCardinality = maxCardinality;
+		}
+	}
+}
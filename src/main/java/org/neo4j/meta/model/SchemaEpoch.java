@@ -0,0 +1,31 @@
+package org.neo4j.meta.model;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A counter which is advanced whenever the meta model is modified. The
+ * {@link SchemaCache}s of a meta model share one epoch and record which
+ * epoch their entries were computed in, so that all of them are
+ * invalidated at once by advancing it instead of by clearing every cache.
+ */
+class SchemaEpoch
+{
+	private final AtomicLong epoch = new AtomicLong();
+
+	/**
+	 * @return the current epoch.
+	 */
+	long current()
+	{
+		return this.epoch.get();
+	}
+
+	/**
+	 * Moves on to a new epoch, which makes everything computed in earlier
+	 * epochs stale.
+	 */
+	void advance()
+	{
+		this.epoch.incrementAndGet();
+	}
+}
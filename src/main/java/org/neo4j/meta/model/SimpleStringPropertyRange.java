@@ -6,7 +6,7 @@ package org.neo4j.meta.model;
  */
 public abstract class SimpleStringPropertyRange extends PropertyRange
 {
-	private static final String KEY_RANGE_SPEC = "range_specification";
+	static final String KEY_RANGE_SPEC = "range_specification";
 	
 	protected abstract String toStringRepresentation(
 		MetaModelRestrictable<PropertyRange> owner );
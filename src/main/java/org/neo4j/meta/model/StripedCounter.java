@@ -0,0 +1,49 @@
+package org.neo4j.meta.model;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter which many threads can increment at once without contending:
+ * the count is spread over a number of stripes, picked by thread, which are
+ * only summed when the counter is read. Each stripe is on a cache line of
+ * its own.
+ */
+class StripedCounter
+{
+	private static final int STRIPES = 16;
+	// The number of longs on a cache line.
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray cells =
+		new AtomicLongArray( STRIPES * PADDING );
+
+	/**
+	 * @return the new count of the stripe of the current thread, f.ex. for
+	 * sampling every n:th increment.
+	 */
+	long increment()
+	{
+		return this.cells.incrementAndGet( stripe() );
+	}
+
+	/**
+	 * @return the sum of the stripes, increments made meanwhile may or may
+	 * not be included.
+	 */
+	long get()
+	{
+		long sum = 0;
+		for ( int i = 0; i < STRIPES; i++ )
+		{
+			sum += this.cells.get( i * PADDING );
+		}
+		return sum;
+	}
+
+	private static int stripe()
+	{
+		// Thread ids are handed out in sequence.
+		long id = Thread.currentThread().getId();
+		return ( int ) ( id & ( STRIPES - 1 ) ) * PADDING;
+	}
+}
@@ -0,0 +1,278 @@
+package org.neo4j.meta.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+/**
+ * The type codes of instances, see {@link MetaModelClass#isInstance(Node)}.
+ * The code of an instance is the sorted ids of the nodes of its classes and
+ * their (recursive) super classes, so checking if a node is an instance of
+ * a class or one of its subclasses is a binary search instead of walking
+ * the {@link MetaModelRelTypes#META_HAS_INSTANCE} relationships and the
+ * class hierarchy. A code is as long as the number of classes it contains,
+ * however many classes there are in total, and nothing has to be assigned
+ * to the classes.
+ *
+ * The codes are cached in memory and discarded when the instance is added
+ * to or removed from a class, or when the class hierarchy changes. When
+ * persistent, see {@link MetaModelImpl#setPersistentTypeCodes(boolean)},
+ * the codes are also stored on the instance nodes, together with the
+ * generation of the class hierarchy they were computed from. They're only
+ * written when a transaction which changed the classes of an instance is
+ * committed, never when an instance is checked. The generation is stored on
+ * the meta model root and advanced by every transaction which changes the
+ * class hierarchy, whether persistent or not, codes of older generations
+ * are computed again (in memory) when needed.
+ *
+ * A transaction with pending changes, see {@link PendingChanges}, neither
+ * reads nor writes the cached or stored codes.
+ */
+class TypeCodes
+{
+	static final String KEY_TYPE_CODE = "meta_model_type_code";
+	static final String KEY_GENERATION = "meta_model_type_generation";
+
+	/**
+	 * The node property keys which type codes are stored in.
+	 */
+	static final Set<String> KEYS = new HashSet<String>( Arrays.asList(
+		KEY_TYPE_CODE, KEY_GENERATION ) );
+
+	private static final long[] NONE = new long[ 0 ];
+
+	private final MetaModelImpl model;
+	private final BoundedCache<Long, long[]> codes;
+	private volatile long version;
+	private volatile boolean persistent;
+
+	TypeCodes( MetaModelImpl model, int maxSize )
+	{
+		this.model = model;
+		this.codes = new BoundedCache<Long, long[]>( "typeCodes", maxSize );
+	}
+
+	boolean isPersistent()
+	{
+		return this.persistent;
+	}
+
+	void setPersistent( boolean persistent )
+	{
+		this.persistent = persistent;
+	}
+
+	/**
+	 * @param instance the node to check.
+	 * @param classNode the node of a class.
+	 * @return whether or not {@code instance} is an instance of that class
+	 * or one of its (recursive) subclasses.
+	 */
+	boolean isInstance( Node instance, Node classNode )
+	{
+		return Arrays.binarySearch( code( instance ),
+			classNode.getId() ) >= 0;
+	}
+
+	private long[] code( Node instance )
+	{
+		if ( model.pendingChanges().any() )
+		{
+			// May differ from the committed code, which is what's cached
+			// and stored.
+			return compute( instance, false );
+		}
+		Long id = instance.getId();
+		long[] code = this.codes.get( id );
+		if ( code != null )
+		{
+			return code;
+		}
+		long versionWhenComputed = this.version;
+		if ( this.persistent )
+		{
+			code = stored( instance );
+		}
+		if ( code == null )
+		{
+			code = compute( instance, false );
+		}
+		put( id, code, versionWhenComputed );
+		return code;
+	}
+
+	/**
+	 * @param fromGraph whether to read the class hierarchy from the graph,
+	 * f.ex. when the pending changes of the transaction have been dropped
+	 * but not yet applied, instead of through
+	 * {@link MetaModelImpl#supers(org.neo4j.graphdb.RelationshipType, Node)}.
+	 */
+	private long[] compute( Node instance, boolean fromGraph )
+	{
+		Set<Long> classIds = new HashSet<Long>();
+		for ( Relationship rel : instance.getRelationships(
+			MetaModelRelTypes.META_HAS_INSTANCE, Direction.INCOMING ) )
+		{
+			Node classNode = rel.getStartNode();
+			classIds.addAll( fromGraph ?
+				MetaModelImpl.traverseSupers(
+					MetaModelRelTypes.META_IS_SUBCLASS_OF, classNode ) :
+				model.supers( MetaModelRelTypes.META_IS_SUBCLASS_OF,
+					classNode ) );
+		}
+		if ( classIds.isEmpty() )
+		{
+			return NONE;
+		}
+		long[] code = new long[ classIds.size() ];
+		int i = 0;
+		for ( Long classId : classIds )
+		{
+			code[ i++ ] = classId;
+		}
+		Arrays.sort( code );
+		return code;
+	}
+
+	private long[] stored( Node instance )
+	{
+		long[] code = ( long[] ) instance.getProperty( KEY_TYPE_CODE, null );
+		if ( code == null || !generation().equals(
+			instance.getProperty( KEY_GENERATION, null ) ) )
+		{
+			return null;
+		}
+		return code;
+	}
+
+	private Long generation()
+	{
+		return ( Long ) model.rootNode().getProperty( KEY_GENERATION, 0L );
+	}
+
+	private synchronized void put( Long id, long[] code,
+		long versionWhenComputed )
+	{
+		if ( versionWhenComputed == this.version )
+		{
+			this.codes.put( id, code );
+		}
+	}
+
+	/**
+	 * Called when {@code instance} has been added to or removed from a
+	 * class through this meta model, within the transaction which did it.
+	 */
+	void instanceChanged( Node instance )
+	{
+		model.pendingChanges().instancesChanged();
+		changed( Collections.singleton( instance.getId() ) );
+	}
+
+	/**
+	 * Called by the {@link MetaModelTransactionEventHandler} before a
+	 * transaction is committed, so that the stored codes follow changes
+	 * made directly in the graph as well. Advances the generation if the
+	 * class hierarchy changed, also when not persistent so that codes
+	 * stored earlier aren't trusted if codes are made persistent again.
+	 * If persistent, stores the codes of the instances which were added
+	 * to or removed from a class.
+	 * @param changes the changes made in the transaction.
+	 */
+	void beforeCommit( MetaModelTransactionEventHandler.SchemaChanges changes )
+	{
+		if ( changes.unknown() || changes.classHierarchyChanged() )
+		{
+			model.rootNode().setProperty( KEY_GENERATION, generation() + 1 );
+		}
+		if ( !this.persistent || changes.instances().isEmpty() )
+		{
+			return;
+		}
+		// Read before the codes are computed, so that they're stamped with
+		// an older generation if the hierarchy is changed meanwhile.
+		Long generation = generation();
+		for ( Long id : changes.instances() )
+		{
+			if ( !changes.deletedInstances().contains( id ) )
+			{
+				store( model.graphDb().getNodeById( id ), generation );
+			}
+		}
+	}
+
+	private void store( Node instance, Long generation )
+	{
+		// The pending changes of the transaction have been dropped, so
+		// the hierarchy index doesn't include them.
+		long[] code = compute( instance, true );
+		if ( code.length == 0 )
+		{
+			if ( instance.hasProperty( KEY_TYPE_CODE ) )
+			{
+				instance.removeProperty( KEY_TYPE_CODE );
+				instance.removeProperty( KEY_GENERATION );
+			}
+		}
+		else
+		{
+			instance.setProperty( KEY_TYPE_CODE, code );
+			instance.setProperty( KEY_GENERATION, generation );
+		}
+	}
+
+	/**
+	 * Called when a transaction which changed the meta model or any
+	 * instance of it has been committed or rolled back.
+	 * @param changes the changes made in the transaction.
+	 */
+	void finished( MetaModelTransactionEventHandler.SchemaChanges changes )
+	{
+		if ( changes.unknown() )
+		{
+			clear();
+		}
+		else
+		{
+			changed( changes.instances() );
+			changed( changes.deletedNodes() );
+		}
+	}
+
+	/**
+	 * Discards the codes of the given nodes.
+	 * @param nodeIds the ids of the nodes.
+	 */
+	synchronized void changed( Collection<Long> nodeIds )
+	{
+		if ( nodeIds.isEmpty() )
+		{
+			return;
+		}
+		this.version++;
+		for ( Long nodeId : nodeIds )
+		{
+			this.codes.remove( nodeId );
+		}
+	}
+
+	/**
+	 * Discards all codes, f.ex. when the class hierarchy has changed.
+	 */
+	synchronized void clear()
+	{
+		this.version++;
+		this.codes.clear();
+	}
+
+	CacheStatistics statistics()
+	{
+		return this.codes.statistics();
+	}
+}
@@ -91,6 +91,26 @@ public abstract class MetaTestCase
 		return indexService;
 	}
 	
+	/**
+	 * Commits the transaction of the test and begins a new one.
+	 */
+	protected void commitTx()
+	{
+		tx.success();
+		tx.finish();
+		tx = graphDb().beginTx();
+	}
+	
+	/**
+	 * Rolls back the transaction of the test and begins a new one.
+	 */
+	protected void rollbackTx()
+	{
+		tx.failure();
+		tx.finish();
+		tx = graphDb().beginTx();
+	}
+	
 	
     protected <T> void assertCollection( Iterable<T> iterable, T... items )
     {
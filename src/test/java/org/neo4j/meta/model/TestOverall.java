@@ -4,9 +4,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.Test;
@@ -55,6 +59,16 @@ public class TestOverall extends MetaTestCase
 		assertNotNull( namespace.getMetaClass( "http://test#Thing", false ) );
 		assertEquals( 1, namespace.getMetaClasses().size() );
 		assertEquals( 0, namespace.getMetaProperties().size() );
+		assertSame( thingClass, namespace.getMetaClasses().iterator().next() );
+		
+		// Names are qualified by namespace and kind
+		assertNull( anotherNamespace.getMetaClass( "http://test#Thing", false ) );
+		MetaModelClass anotherThingClass =
+			anotherNamespace.getMetaClass( "http://test#Thing", true );
+		assertFalse( thingClass.equals( anotherThingClass ) );
+		assertEquals( thingClass,
+			namespace.getMetaClass( "http://test#Thing", false ) );
+		assertNull( namespace.getMetaProperty( "http://test#Thing", false ) );
 		
 		MetaModelClass phoneClass =
 			namespace.getMetaClass( "http://test#Phone", true );
@@ -125,10 +139,16 @@ public class TestOverall extends MetaTestCase
 		// All instances (recursive)
 		assertCollection( personClass.getAllInstances(), person1, person2 );
 		Node user1 = graphDb().createNode();
+		assertFalse( personClass.isInstance( user1 ) );
 		userClass.getDirectInstances().add( user1 );
 		assertCollection( personClass.getAllInstances(), person1, person2, user1 );
 		assertCollection( userClass.getDirectInstances(), user1 );
         assertCollection( userClass.getAllInstances(), user1 );
+		assertTrue( personClass.isInstance( user1 ) );
+		assertTrue( thingClass.isInstance( user1 ) );
+		assertTrue( personClass.isInstance( person1 ) );
+		assertFalse( userClass.isInstance( person1 ) );
+		assertFalse( phoneClass.isInstance( user1 ) );
 
         //Instance range
 		MetaModelClass adminClass =
@@ -223,6 +243,11 @@ public class TestOverall extends MetaTestCase
 		assertCollection( user.getAllPropertyRestrictions(), personNameRestriction,
 			userNameRestriction, userNickNameRestriction,
 			personNickNameRestriction );
+		assertNull( thing.getEffectiveRestriction( name ) );
+		assertEquals( personNameRestriction,
+			person.getEffectiveRestriction( name ) );
+		assertEquals( userNameRestriction, user.getEffectiveRestriction( name ) );
+		assertEquals( 2, user.getEffectivePropertyRestrictions().size() );
 		doTestPropertyTypeRestrictable( structure, userNameRestriction );
 		deleteMetaModel();
 	}
@@ -362,7 +387,288 @@ public class TestOverall extends MetaTestCase
 		assertCollection( Arrays.asList( ( ( ClassRange )
 			meta.lookup( likes, MetaModel.LOOKUP_RELATIONSHIPTYPE_RANGE,
 			person ) ).getRangeClasses() ), thing );
+
+		assertEquals( 1, meta.lookupMinCardinality( size, thing, organism ) );
+		assertEquals( 5, meta.lookupMaxCardinality( nickName, user ) );
+		assertEquals( 1, meta.lookupMaxCardinality( age, song ) );
+		assertEquals( MetaModel.CARDINALITY_UNSET,
+			meta.lookupMaxCardinality( likes, musicListener ) );
+		assertEquals( Arrays.asList( user, person, organism, thing ),
+			Arrays.asList( user.getLinearization() ) );
+
+		// Batch lookup
+		LookupResults results = meta.lookupAll( Arrays.asList( size, age ),
+			new PropertyLookerUpper<?>[] {
+				MetaModel.LOOKUP_PROPERTY_MIN_CARDINALITY,
+				MetaModel.LOOKUP_PROPERTY_MAX_CARDINALITY }, organism );
+		assertEquals( 2, results.rowCount() );
+		assertEquals( 2, results.columnCount() );
+		assertEquals( 1, ( int ) results.get( size,
+			MetaModel.LOOKUP_PROPERTY_MIN_CARDINALITY ) );
+		assertEquals( 1, ( int ) results.get( age,
+			MetaModel.LOOKUP_PROPERTY_MAX_CARDINALITY ) );
+
+		// Cached lookups must reflect changes in the meta model
+		organism.getRestriction( size, false ).setMinCardinality( 2 );
+		assertLookup( meta, size, MetaModel.LOOKUP_PROPERTY_MIN_CARDINALITY, 2,
+			organism );
+		assertLookup( meta, size, MetaModel.LOOKUP_PROPERTY_MIN_CARDINALITY, null,
+			thing );
+		thing.getRestriction( size, true ).setMinCardinality( 3 );
+		assertLookup( meta, size, MetaModel.LOOKUP_PROPERTY_MIN_CARDINALITY, 3,
+			thing );
+
+		deleteMetaModel();
+	}
+	
+	@Test
+	public void testBulkDefinition()
+	{
+		MetaModel meta = new MetaModelImpl( graphDb(), indexService() );
+		MetaModelNamespace namespace = meta.getNamespace( "bulk", true );
+		MetaModelClass existing = namespace.getMetaClass( "animal", true );
+		
+		SchemaDefinition definition = new SchemaDefinition()
+			.defineClass( "dog", "mammal" )
+			.defineClass( "mammal", "animal" )
+			.defineProperty( "nickname", "name" )
+			.restrictProperty( "dog", "nickname", 1, 2 );
+		// dog, mammal, nickname, name, three supers and one restriction
+		assertEquals( 8, namespace.define( definition, 3 ) );
+		// Everything exists already
+		assertEquals( 1, namespace.define( new SchemaDefinition()
+			.defineClass( "mammal", "animal" )
+			.restrictProperty( "dog", "nickname", 1, 2 ), 3 ) );
+		
+		MetaModelClass dog = namespace.getMetaClass( "dog", false );
+		MetaModelClass mammal = namespace.getMetaClass( "mammal", false );
+		assertEquals( 3, namespace.getMetaClasses().size() );
+		assertCollection( dog.getDirectSupers(), mammal );
+		assertCollection( mammal.getDirectSupers(), existing );
+		assertTrue( dog.isSubOf( existing ) );
+		assertFalse( existing.isSubOf( dog ) );
+		try
+		{
+			existing.getDirectSupers().add( dog );
+			fail( "Should have rejected a cycle" );
+		}
+		catch ( HierarchyCycleException e )
+		{
+			// Good
+		}
+		try
+		{
+			dog.getDirectSubs().add( existing );
+			fail( "Should have rejected a cycle" );
+		}
+		catch ( HierarchyCycleException e )
+		{
+			// Good
+		}
+		assertFalse( existing.isSubOf( dog ) );
+		MetaModelProperty nickname =
+			namespace.getMetaProperty( "nickname", false );
+		assertCollection( nickname.getDirectSupers(),
+			namespace.getMetaProperty( "name", false ) );
+		assertEquals( Integer.valueOf( 2 ),
+			dog.getRestriction( nickname, false ).getMaxCardinality() );
+		assertEquals( 1, dog.getDirectPropertyRestrictions().size() );
+		
+		MetaModelClass cat = namespace.getMetaClass( "cat", true );
+		cat.getDirectSupers().add( mammal );
+		assertCollection( dog.getCommonSupers( cat ), mammal, existing );
+		assertCollection( dog.getLeastCommonSupers( cat ), mammal );
+		assertCollection( dog.getLeastCommonSupers( dog ), dog );
+		
+		try
+		{
+			namespace.define( new SchemaDefinition()
+				.defineClass( "wolf", "canine" )
+				.defineClass( "canine", "wolf" ), 1 );
+			fail( "Should have rejected a cycle" );
+		}
+		catch ( HierarchyCycleException e )
+		{
+			// Good, and nothing was written
+		}
+		try
+		{
+			namespace.define( new SchemaDefinition()
+				.defineClass( "wolf", "dog" )
+				.defineClass( "animal", "wolf" ), 1 );
+			fail( "Should have rejected a cycle" );
+		}
+		catch ( HierarchyCycleException e )
+		{
+			// Good
+		}
+		assertEquals( 4, namespace.getMetaClasses().size() );
+		assertNull( namespace.getMetaClass( "wolf", false ) );
+		
+		Iterable<HierarchyPosition<MetaModelClass>> supers =
+			dog.getAllSupers();
+		Iterator<HierarchyPosition<MetaModelClass>> walk = supers.iterator();
+		HierarchyPosition<MetaModelClass> first = walk.next();
+		assertSame( mammal, first.getThing() );
+		assertEquals( 1, first.getDepth() );
+		assertEquals( 2, walk.next().getDepth() );
+		assertFalse( walk.hasNext() );
+		supers = dog.getAllSupers( 1 );
+		assertEquals( 1, supers.iterator().next().getDepth() );
+		Iterable<HierarchyPosition<MetaModelClass>> subs =
+			existing.getAllSubs( 1 );
+		assertSame( mammal, subs.iterator().next().getThing() );
+
+		deleteMetaModel();
+	}
+	
+	@Test
+	public void testBulkDefinitionWithoutBackfill()
+	{
+		MetaModelImpl meta = new MetaModelImpl( graphDb(), indexService() );
+		MetaModelNamespace namespace = meta.getNamespace( "legacy", true );
+		// A class from before the qualified names were indexed
+		Node mammal = graphDb().createNode();
+		mammal.setProperty( MetaModelObject.KEY_NAME, "mammal" );
+		namespace.node().createRelationshipTo( mammal,
+			MetaModelRelTypes.META_CLASS );
+		meta.rootNode().removeProperty( NameIndex.KEY_COMPLETE );
+		
+		meta = new MetaModelImpl( graphDb(), indexService() );
+		namespace = meta.getNamespace( "legacy", false );
+		// dog and one super
+		assertEquals( 2, namespace.define( new SchemaDefinition()
+			.defineClass( "dog", "mammal" ), 10 ) );
+		assertEquals( 2, namespace.getMetaClasses().size() );
+		MetaModelClass dog = namespace.getMetaClass( "dog", false );
+		assertEquals( mammal,
+			namespace.getMetaClass( "mammal", false ).node() );
+		assertCollection( dog.getDirectSupers(),
+			namespace.getMetaClass( "mammal", false ) );
+		
+		deleteMetaModel();
+	}
+	
+	@Test
+	public void testPersistentTypeCodes()
+	{
+		MetaModelImpl meta = new MetaModelImpl( graphDb(), indexService() );
+		meta.setPersistentTypeCodes( true );
+		MetaModelNamespace namespace = meta.getNamespace( "codes", true );
+		MetaModelClass animal = namespace.getMetaClass( "animal", true );
+		MetaModelClass dog = namespace.getMetaClass( "dog", true );
+		MetaModelClass cat = namespace.getMetaClass( "cat", true );
+		dog.getDirectSupers().add( animal );
+		Node rex = graphDb().createNode();
+		dog.getDirectInstances().add( rex );
+		// Pending, so computed from this transaction and not stored
+		assertTrue( animal.isInstance( rex ) );
+		assertFalse( rex.hasProperty( TypeCodes.KEY_TYPE_CODE ) );
+		commitTx();
 		
+		// Stored on commit, stamped with the generation of the hierarchy
+		Object generation =
+			meta.rootNode().getProperty( TypeCodes.KEY_GENERATION );
+		assertEquals( generation,
+			rex.getProperty( TypeCodes.KEY_GENERATION ) );
+		long[] code = ( long[] ) rex.getProperty( TypeCodes.KEY_TYPE_CODE );
+		assertEquals( 2, code.length );
+		assertTrue( animal.isInstance( rex ) );
+		assertTrue( dog.isInstance( rex ) );
+		assertFalse( cat.isInstance( rex ) );
+		
+		// A new meta model reads the stored code, here one which claims
+		// that rex is a cat
+		rex.setProperty( TypeCodes.KEY_TYPE_CODE, new long[] {
+			cat.node().getId() } );
+		MetaModelImpl restarted =
+			new MetaModelImpl( graphDb(), indexService() );
+		restarted.setPersistentTypeCodes( true );
+		MetaModelNamespace restartedNamespace =
+			restarted.getNamespace( "codes", false );
+		assertTrue( restartedNamespace.getMetaClass( "cat", false ).
+			isInstance( rex ) );
+		assertFalse( restartedNamespace.getMetaClass( "dog", false ).
+			isInstance( rex ) );
+		restarted.setPersistentTypeCodes( false );
+		rollbackTx();
+		assertEquals( code.length, ( ( long[] ) rex.getProperty(
+			TypeCodes.KEY_TYPE_CODE ) ).length );
+		
+		// A hierarchy change advances the generation, checks don't store
+		// the code again
+		cat.getDirectSupers().add( animal );
+		commitTx();
+		assertFalse( generation.equals(
+			meta.rootNode().getProperty( TypeCodes.KEY_GENERATION ) ) );
+		assertTrue( animal.isInstance( rex ) );
+		assertFalse( cat.isInstance( rex ) );
+		assertEquals( generation,
+			rex.getProperty( TypeCodes.KEY_GENERATION ) );
+		
+		// A rolled back change leaves the cached and stored codes alone
+		cat.getDirectInstances().add( rex );
+		assertTrue( cat.isInstance( rex ) );
+		rollbackTx();
+		assertFalse( cat.isInstance( rex ) );
+		assertTrue( dog.isInstance( rex ) );
+		assertEquals( generation,
+			rex.getProperty( TypeCodes.KEY_GENERATION ) );
+		
+		// The generation advances while not persistent as well, so the
+		// stored code isn't trusted when persistent again
+		meta.setPersistentTypeCodes( false );
+		generation = meta.rootNode().getProperty( TypeCodes.KEY_GENERATION );
+		MetaModelClass pet = namespace.getMetaClass( "pet", true );
+		dog.getDirectSupers().add( pet );
+		commitTx();
+		meta.setPersistentTypeCodes( true );
+		assertFalse( generation.equals(
+			meta.rootNode().getProperty( TypeCodes.KEY_GENERATION ) ) );
+		assertTrue( pet.isInstance( rex ) );
+		
+		deleteMetaModel();
+	}
+	
+	@Test
+	public void testCascadingRemoval()
+	{
+		MetaModel meta = new MetaModelImpl( graphDb(), indexService() );
+		MetaModelNamespace namespace = meta.getNamespace( "removal", true );
+		MetaModelClass cat = namespace.getMetaClass( "cat", true );
+		MetaModelProperty whiskers = namespace.getMetaProperty( "whiskers", true );
+		cat.getRestriction( whiskers, true ).setMaxCardinality( 1 );
+		MetaModelClass animal = namespace.getMetaClass( "animal", true );
+		MetaModelClass kitten = namespace.getMetaClass( "kitten", true );
+		cat.getDirectSupers().add( animal );
+		cat.getDirectSubs().add( kitten );
+		assertTrue( kitten.isSubOf( animal ) );
+		for ( int i = 0; i < 5; i++ )
+		{
+			cat.getDirectInstances().add( graphDb().createNode() );
+		}
+		
+		final List<Boolean> progress = new ArrayList<Boolean>();
+		assertEquals( 7, namespace.removeCascading( "cat", 2,
+			new RemovalListener()
+			{
+				public void progress( String name, long relationships,
+					long restrictions, boolean done )
+				{
+					assertEquals( "cat", name );
+					progress.add( done );
+				}
+			} ) );
+		// One restriction, five instances and two hierarchy relationships,
+		// two per batch, then the node
+		assertEquals( Arrays.asList( false, false, false, false, true ),
+			progress );
+		assertNull( namespace.getMetaClass( "cat", false ) );
+		assertFalse( kitten.isSubOf( animal ) );
+		assertFalse( whiskers.node().hasRelationship(
+			MetaModelRelTypes.META_RESTRICTION_TO_PROPERTY ) );
+		assertEquals( 0, ( ( MetaModelImpl ) meta ).resumeRemovals( 2, null ) );
+
 		deleteMetaModel();
 	}
 	